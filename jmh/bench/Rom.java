@@ -0,0 +1,79 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+
+import static java.lang.invoke.MethodType.methodType;
+
+// JMH needs benchmarks in a named package, and a named package cannot import the default-package sources,
+// so benchmarks reach them through constant method handles, which the JIT inlines like direct calls.
+final class Rom {
+    static final Class<?> READER = load("RomReader");
+    static final Class<?> STORAGE = load("RomStorage");
+
+    static final MethodHandle OPEN = constructor(READER, methodType(void.class, Path.class));
+    static final MethodHandle OPEN_WITH = constructor(READER, methodType(void.class, Path.class, STORAGE))
+            .asType(methodType(Object.class, Path.class, Object.class));
+    static final MethodHandle CLOSE = virtual(READER, "close", methodType(void.class));
+    static final MethodHandle READ8 = virtual(READER, "read8", methodType(int.class, int.class));
+    static final MethodHandle READ24 = virtual(READER, "read24", methodType(int.class, int.class));
+    static final MethodHandle READ_BYTES = virtual(READER, "readBytes", methodType(void.class, int.class, byte[].class));
+    static final MethodHandle READ_SHORTS = virtual(READER, "readShorts", methodType(void.class, int.class, short[].class));
+    static final MethodHandle READ_STRING = virtual(READER, "readString", methodType(String.class, int.class));
+    static final Class<?> STRING_POOL = load("StringPool");
+    static final MethodHandle READ_STRINGS = virtual(READER, "readStrings", methodType(STRING_POOL, int.class, int.class, int.class))
+            .asType(methodType(Object.class, Object.class, int.class, int.class, int.class));
+    static final MethodHandle LZ10_SIZE = virtual(READER, "lz10Size", methodType(int.class, int.class));
+    static final MethodHandle DECOMPRESS = virtual(READER, "decompressLZ10", methodType(int.class, int.class, byte[].class));
+    static final Class<?> PALETTE = load("Palette");
+    static final MethodHandle READ_PALETTES = virtual(READER, "readPalettes", methodType(PALETTE, int.class, int.class, boolean.class))
+            .asType(methodType(Object.class, Object.class, int.class, int.class, boolean.class));
+    static final Class<?> MAP_INDEX = load("MapIndex");
+    static final MethodHandle BUILD_MAP_INDEX = statik(MAP_INDEX, "build", methodType(MAP_INDEX, READER, int.class))
+            .asType(methodType(Object.class, Object.class, int.class));
+    static final MethodHandle MAP_COUNT = virtual(MAP_INDEX, "count", methodType(int.class));
+
+    private Rom() {
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object storage(String name) {
+        return Enum.valueOf((Class) STORAGE, name);
+    }
+
+    static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static MethodHandle constructor(Class<?> owner, MethodType type) {
+        try {
+            MethodHandle mh = MethodHandles.publicLookup().findConstructor(owner, type);
+            return mh.asType(mh.type().changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static MethodHandle virtual(Class<?> owner, String name, MethodType type) {
+        try {
+            MethodHandle mh = MethodHandles.publicLookup().findVirtual(owner, name, type);
+            return mh.asType(mh.type().changeParameterType(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static MethodHandle statik(Class<?> owner, String name, MethodType type) {
+        try {
+            return MethodHandles.publicLookup().findStatic(owner, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
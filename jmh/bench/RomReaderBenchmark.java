@@ -0,0 +1,114 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Per-byte get() (the old readBytes/read16 path) against the bulk reads, over the same table shapes Main scans.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RomReaderBenchmark {
+    static final int ROM_SIZE = 16 * 1024 * 1024;
+    static final int SPECIES = 412;
+    static final int SPECIES_BYTES = 28;
+    static final int NAME_BYTES = 11;
+    static final int MAP_CELLS = 64 * 64;
+
+    Path file;
+    Object rom;
+    byte[] species = new byte[SPECIES * SPECIES_BYTES];
+    byte[] names = new byte[SPECIES * NAME_BYTES];
+    short[] cells = new short[MAP_CELLS];
+
+    @Setup
+    public void setup() throws Throwable {
+        byte[] data = new byte[ROM_SIZE];
+        new Random(42).nextBytes(data);
+        file = Files.createTempFile("rom", ".gba");
+        Files.write(file, data);
+        rom = (Object) Rom.OPEN.invokeExact(file);
+        // the bulk paths must read what the per-byte ones do, or the comparison means nothing
+        if (!Arrays.equals(tileStructurePerByte().clone(), tileStructureBulk())
+                || !Arrays.equals(speciesTablePerByte().clone(), speciesTableBulk())) {
+            throw new IllegalStateException("bulk reads disagree with per-byte reads");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        Rom.CLOSE.invokeExact(rom);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public byte[] speciesTablePerByte() throws Throwable {
+        for (int i = 0; i < species.length; i++) {
+            species[i] = (byte) (int) Rom.READ8.invokeExact(rom, 0x254784 + i);
+        }
+        return species;
+    }
+
+    @Benchmark
+    public byte[] speciesTableBulk() throws Throwable {
+        Rom.READ_BYTES.invokeExact(rom, 0x254784, species);
+        return species;
+    }
+
+    @Benchmark
+    public byte[] nameTablePerByte() throws Throwable {
+        for (int i = 0; i < names.length; i++) {
+            names[i] = (byte) (int) Rom.READ8.invokeExact(rom, 0x245EE0 + i);
+        }
+        return names;
+    }
+
+    @Benchmark
+    public byte[] nameTableBulk() throws Throwable {
+        Rom.READ_BYTES.invokeExact(rom, 0x245EE0, names);
+        return names;
+    }
+
+    @Benchmark
+    public short[] tileStructurePerByte() throws Throwable {
+        for (int i = 0; i < cells.length; i++) {
+            int offset = 0x2D895C + i * 2;
+            int lo = (int) Rom.READ8.invokeExact(rom, offset);
+            int hi = (int) Rom.READ8.invokeExact(rom, offset + 1);
+            cells[i] = (short) (lo | (hi << 8));
+        }
+        return cells;
+    }
+
+    @Benchmark
+    public short[] tileStructureBulk() throws Throwable {
+        Rom.READ_SHORTS.invokeExact(rom, 0x2D895C, cells);
+        return cells;
+    }
+
+    @Benchmark
+    public void pointerTablePerByte(Blackhole bh) throws Throwable {
+        for (int i = 0; i < SPECIES; i++) {
+            int offset = 0x2350AC + i * 8;
+            int b0 = (int) Rom.READ8.invokeExact(rom, offset);
+            int b1 = (int) Rom.READ8.invokeExact(rom, offset + 1);
+            int b2 = (int) Rom.READ8.invokeExact(rom, offset + 2);
+            bh.consume(b0 | (b1 << 8) | (b2 << 16));
+        }
+    }
+
+    @Benchmark
+    public void pointerTableBulk(Blackhole bh) throws Throwable {
+        for (int i = 0; i < SPECIES; i++) {
+            bh.consume((int) Rom.READ24.invokeExact(rom, 0x2350AC + i * 8));
+        }
+    }
+}
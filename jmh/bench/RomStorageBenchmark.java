@@ -0,0 +1,96 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// The real Main workloads against each RomStorage backend. Needs a FireRed ROM:
+//   java -Drom=firered.gba -jar target/benchmarks.jar RomStorageBenchmark
+// open measures a short job's startup (open, touch a pointer, close); the rest are warm-path costs.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RomStorageBenchmark {
+    static final int NUM_POKEMON = 386;
+
+    @Param({"MAPPED", "HEAP", "DIRECT"})
+    String storage;
+
+    Path path;
+    Object rom;
+    int frontSprites;
+    int palettes;
+    int names;
+    int mapBank;
+    byte[] pixels = new byte[0x800];
+
+    @Setup
+    public void setup() throws Throwable {
+        path = Path.of(System.getProperty("rom", "firered.gba"));
+        rom = (Object) Rom.OPEN_WITH.invokeExact(path, Rom.storage(storage));
+        frontSprites = (int) Rom.READ24.invokeExact(rom, 0x128);
+        palettes = (int) Rom.READ24.invokeExact(rom, 0x130);
+        names = (int) Rom.READ24.invokeExact(rom, 0x144);
+        mapBank = (int) Rom.READ24.invokeExact(rom, 0x55260);
+        if ((int) Rom.MAP_COUNT.invokeExact((Object) Rom.BUILD_MAP_INDEX.invokeExact(rom, mapBank)) == 0) {
+            throw new IllegalStateException(path + " has no map bank table at the FireRed offset");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        Rom.CLOSE.invokeExact(rom);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public int open() throws Throwable {
+        Object fresh = (Object) Rom.OPEN_WITH.invokeExact(path, Rom.storage(storage));
+        int pointer = (int) Rom.READ24.invokeExact(fresh, 0x128);
+        Rom.CLOSE.invokeExact(fresh);
+        return pointer;
+    }
+
+    @Benchmark
+    public int spriteDecompression() throws Throwable {
+        int consumed = 0;
+        for (int pid = 1; pid <= NUM_POKEMON; pid++) {
+            int sprite = (int) Rom.READ24.invokeExact(rom, frontSprites + 8 * pid);
+            consumed += (int) Rom.DECOMPRESS.invokeExact(rom, sprite, pixels);
+        }
+        return consumed;
+    }
+
+    @Benchmark
+    public void paletteDecode(Blackhole bh) throws Throwable {
+        for (int pid = 1; pid <= NUM_POKEMON; pid++) {
+            int palette = (int) Rom.READ24.invokeExact(rom, palettes + 8 * pid);
+            bh.consume((Object) Rom.READ_PALETTES.invokeExact(rom, palette, 1, true));
+        }
+    }
+
+    // every bank up to the sentinel, every map header and its layout, as MapIndex reads them for Main
+    @Benchmark
+    public Object mapBankWalk() throws Throwable {
+        return (Object) Rom.BUILD_MAP_INDEX.invokeExact(rom, mapBank);
+    }
+
+    @Benchmark
+    public void stringTableDecode(Blackhole bh) throws Throwable {
+        for (int pid = 1; pid <= NUM_POKEMON; pid++) {
+            bh.consume((String) Rom.READ_STRING.invokeExact(rom, names + 11 * pid));
+        }
+    }
+
+    @Benchmark
+    public Object stringTableBulk() throws Throwable {
+        return (Object) Rom.READ_STRINGS.invokeExact(rom, names + 11, 11, NUM_POKEMON);
+    }
+}
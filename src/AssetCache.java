@@ -0,0 +1,271 @@
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+// Decoded ROM data keyed by (ROM, offset, kind), least recently used evicted once maxBytes is exceeded.
+// With soft set the values are also SoftReferences, so the GC may drop them before we do.
+// Returned arrays and palettes are shared between callers and must not be modified.
+//
+// Behind the offset keys the cache is content-addressed: on a miss the source bytes (the compressed
+// stream, or the raw palette) are CRC32C-hashed, and if the same bytes were decoded before, at another
+// offset or in another ROM, that result is reused after a byte-for-byte check instead of decoding again.
+// Species sharing a palette, and hacks or revisions sharing most of their graphics, decode each once.
+// Offset keys only name their content entry, so a hit through one keeps that entry recent, and evicting
+// it frees the value: the next lookup through any of its offsets misses.
+public class AssetCache {
+    enum Kind {
+        LZ10,
+        PALETTE
+    }
+
+    private static final class Key {
+        final String rom;
+        final int offset;
+        final Kind kind;
+        final int param;
+
+        Key(String rom, int offset, Kind kind, int param) {
+            this.rom = rom;
+            this.offset = offset;
+            this.kind = kind;
+            this.param = param;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return offset == k.offset && param == k.param && kind == k.kind && rom.equals(k.rom);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rom, offset, kind, param);
+        }
+    }
+
+    // The hash and length of an asset's source bytes; equal keys are confirmed against Entry.source.
+    private static final class ContentKey {
+        final Kind kind;
+        final int param;
+        final int crc;
+        final int length;
+
+        ContentKey(Kind kind, int param, int crc, int length) {
+            this.kind = kind;
+            this.param = param;
+            this.crc = crc;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContentKey)) return false;
+            ContentKey k = (ContentKey) o;
+            return crc == k.crc && length == k.length && param == k.param && kind == k.kind;
+        }
+
+        @Override
+        public int hashCode() {
+            return crc * 31 + length;
+        }
+    }
+
+    // an offset key naming a content entry costs about this much
+    private static final long ALIAS_BYTES = 64;
+
+    private static final class Entry {
+        final Object value;
+        final long bytes;
+        final byte[] source; // content entries only
+        final ContentKey content; // offset entries only
+
+        Entry(Object value, long bytes, boolean soft, byte[] source) {
+            this.value = soft ? new SoftReference<>(value) : value;
+            this.bytes = bytes;
+            this.source = source;
+            this.content = null;
+        }
+
+        Entry(ContentKey content) {
+            this.value = null;
+            this.bytes = ALIAS_BYTES;
+            this.source = null;
+            this.content = content;
+        }
+
+        Object get() {
+            return value instanceof SoftReference ? ((SoftReference<?>) value).get() : value;
+        }
+    }
+
+    private final long maxBytes;
+    private final boolean soft;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    public AssetCache(long maxBytes, boolean soft) {
+        this.maxBytes = maxBytes;
+        this.soft = soft;
+    }
+
+    // Decompressed LZ10 stream at offset, or null if there is no valid stream there.
+    public byte[] decompressLZ10(RomReader rom, int offset) {
+        Key key = new Key(rom.id(), offset, Kind.LZ10, 0);
+        byte[] cached = (byte[]) get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        int length = rom.lz10Length(offset);
+        if (length < 0) {
+            return null;
+        }
+        ContentKey content = new ContentKey(Kind.LZ10, 0, rom.crc32c(offset, length), length);
+        byte[] same = (byte[]) shared(content, rom, offset);
+        if (same != null) {
+            put(key, new Entry(content));
+            return same;
+        }
+
+        byte[] out = new byte[rom.lz10Size(offset)];
+        if (rom.decompressLZ10(offset, out) < 0) {
+            return null;
+        }
+        put(content, new Entry(out, out.length + length, soft, source(rom, offset, length)));
+        put(key, new Entry(content));
+        return out;
+    }
+
+    public Palette readPalettes(RomReader rom, int offset, int numPalettes, boolean compressed) {
+        // palettes of different lengths or compression at the same offset are different assets
+        int param = compressed ? -numPalettes : numPalettes;
+        Key key = new Key(rom.id(), offset, Kind.PALETTE, param);
+        Palette cached = (Palette) get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        int length = compressed ? rom.lz10Length(offset) : numPalettes * Palette.BYTES;
+        if (length < 0) {
+            return rom.readPalettes(offset, numPalettes, true); // throws the usual bad palette error
+        }
+        ContentKey content = new ContentKey(Kind.PALETTE, param, rom.crc32c(offset, length), length);
+        Palette same = (Palette) shared(content, rom, offset);
+        if (same != null) {
+            put(key, new Entry(content));
+            return same;
+        }
+
+        Palette palette = rom.readPalettes(offset, numPalettes, compressed);
+        put(content, new Entry(palette, numPalettes * Palette.COLORS * (Short.BYTES + Integer.BYTES) + length,
+                soft, source(rom, offset, length)));
+        put(key, new Entry(content));
+        return palette;
+    }
+
+    // The value decoded earlier from the same bytes as [offset, offset + content.length), or null.
+    private Object shared(ContentKey content, RomReader rom, int offset) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(content);
+        }
+        Object value = entry != null ? entry.get() : null;
+        if (value == null || !rom.slice(offset, content.length).equals(ByteBuffer.wrap(entry.source))) {
+            return null;
+        }
+        shared.increment();
+        return value;
+    }
+
+    private static byte[] source(RomReader rom, int offset, int length) {
+        byte[] source = new byte[length];
+        rom.readBytes(offset, source);
+        return source;
+    }
+
+    // Looks the content entry up too, which makes it the most recently used.
+    private synchronized Object get(Key key) {
+        Entry alias = entries.get(key);
+        Entry entry = alias != null ? entries.get(alias.content) : null;
+        Object value = entry != null ? entry.get() : null;
+        if (value == null) {
+            if (alias != null) {
+                // the content entry was evicted
+                entries.remove(key);
+                bytes -= alias.bytes;
+            }
+            if (entry != null) {
+                // collected by the GC in soft mode
+                entries.remove(alias.content);
+                bytes -= entry.bytes;
+            }
+            misses.increment();
+            Metrics.add(Metrics.Counter.CACHE_MISSES, 1);
+            return null;
+        }
+        hits.increment();
+        Metrics.add(Metrics.Counter.CACHE_HITS, 1);
+        return value;
+    }
+
+    // Two threads missing on the same key both decode it, the second put simply replaces the first.
+    private synchronized void put(Object key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entry.bytes;
+
+        Iterator<Map.Entry<Object, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<Object, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue; // never evict what we just added, even if it alone is over budget
+            }
+            bytes -= eldest.getValue().bytes;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    // misses answered by an identical asset decoded from elsewhere
+    public long shared() {
+        return shared.sum();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d misses (%d shared), %d evictions, %d entries, %d bytes",
+                hits(), misses(), shared(), evictions(), size(), bytes());
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+// Which ROM bytes every output of an extraction was made from, written next to the outputs as
+// manifest.tsv. Found by following the same pointers the extractors follow: the words pointing at each
+// table (RomTables.site, e.g. 0x128 for front sprites in FireRed) and what they point at, so a change to
+// either a table entry or the data behind it marks the output stale.
+//
+//   rom <tab> crc32c <tab> size
+//   <asset> <tab> crc32c of its bytes <tab> start-end start-end ...   (hex)
+//
+// Assets are output paths relative to the ROM's directory; sprites are cells of one sheet, "sprites.png#id".
+class AssetManifest {
+    static final String STRINGS = "strings.txt";
+    static final String SPECIES = "species.txt";
+    static final String ENCOUNTERS = "encounters.txt"; // and locations.txt, both come from the same table
+    static final String SPRITES = "sprites.png";
+
+    private static final class Entry {
+        final ByteRanges ranges;
+        int crc;
+        boolean hashed;
+
+        Entry(ByteRanges ranges) {
+            this.ranges = ranges;
+        }
+    }
+
+    final int romCrc;
+    final int romSize;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    private AssetManifest(int romCrc, int romSize) {
+        this.romCrc = romCrc;
+        this.romSize = romSize;
+    }
+
+    static String map(int bank, int map) {
+        return String.format("maps/map_%02d_%02d.png", bank, map);
+    }
+
+    static String sprite(int id) {
+        return String.format("%s#%03d", SPRITES, id);
+    }
+
+    // Species id of a sprite asset, or -1 for any other asset.
+    static int spriteId(String asset) {
+        return asset.startsWith(SPRITES + "#") ? Integer.parseInt(asset.substring(SPRITES.length() + 1)) : -1;
+    }
+
+    // Ranges of every output BatchExtractor writes for rom, not yet hashed.
+    static AssetManifest build(RomReader rom, MapIndex maps, int masterTable, int numSpecies) {
+        AssetManifest manifest = new AssetManifest(rom.crc32c(0, rom.size()), rom.size());
+        RomTables tables = rom.tables();
+
+        ByteRanges.Builder mapNames = new ByteRanges.Builder();
+        word(mapNames, tables.site(RomTables.Table.MAP_NAMES));
+        int nameTable = tables.mapNames();
+        mapNames.add(nameTable, nameTable + 4 * 109);
+        ByteBuffer all = rom.slice(0, rom.size());
+        for (int i = 0; i < 109; i++) {
+            int pointer = rom.read32(nameTable + 4 * i);
+            if (!rom.isRomPointer(pointer)) continue;
+            int start = RomReader.toOffset(pointer);
+            int end = TextDecoder.stringEnd(all, start, Math.min(start + RomReader.MAX_STRING, rom.size()));
+            mapNames.add(start, Math.min(end + 1, rom.size()));
+        }
+        ByteRanges names = mapNames.build();
+
+        ByteRanges.Builder strings = new ByteRanges.Builder().add(names);
+        word(strings, tables.site(RomTables.Table.SPECIES_NAMES));
+        int speciesNames = tables.speciesNames();
+        strings.add(speciesNames + 11, speciesNames + 11 * (numSpecies + 1));
+        word(strings, tables.site(RomTables.Table.TYPE_NAMES));
+        int typeNames = tables.typeNames();
+        strings.add(typeNames, typeNames + 7 * 18);
+        manifest.put(STRINGS, strings.build());
+
+        ByteRanges.Builder species = new ByteRanges.Builder();
+        word(species, tables.site(RomTables.Table.SPECIES_DATA));
+        int speciesTable = tables.speciesData();
+        species.add(speciesTable, speciesTable + SpeciesTable.RECORD_BYTES * (numSpecies + 1));
+        manifest.put(SPECIES, species.build());
+
+        // encounter rows are labelled through the map headers, so those count too
+        ByteRanges.Builder encounters = new ByteRanges.Builder().add(names);
+        word(encounters, tables.site(RomTables.Table.ENCOUNTERS));
+        EncounterTable.ranges(rom, tables.encounters(), encounters);
+        word(encounters, tables.site(RomTables.Table.MAP_BANKS));
+        for (int m = 0; m < maps.count(); m++) {
+            maps.ranges(rom, masterTable, m, encounters);
+        }
+        manifest.put(ENCOUNTERS, encounters.build());
+
+        SpriteExtractor sprites = new SpriteExtractor(rom, null, 0, 0, false);
+        for (int id = 1; id <= numSpecies; id++) {
+            ByteRanges.Builder sprite = new ByteRanges.Builder();
+            word(sprite, tables.site(RomTables.Table.FRONT_SPRITES));
+            word(sprite, tables.site(RomTables.Table.BACK_SPRITES));
+            word(sprite, tables.site(RomTables.Table.NORMAL_PALETTES));
+            word(sprite, tables.site(RomTables.Table.SHINY_PALETTES));
+            sprites.ranges(id, sprite);
+            manifest.put(sprite(id), sprite.build());
+        }
+
+        for (int m = 0; m < maps.count(); m++) {
+            if (!MapRenderer.renderable(maps, m)) continue;
+            ByteRanges.Builder map = new ByteRanges.Builder();
+            word(map, tables.site(RomTables.Table.MAP_BANKS));
+            MapRenderer.ranges(rom, maps, masterTable, m, map);
+            manifest.put(map(maps.bank(m), maps.mapNumber(m)), map.build());
+        }
+        return manifest;
+    }
+
+    private static void word(ByteRanges.Builder out, int offset) {
+        out.add(offset, offset + 4);
+    }
+
+    private void put(String asset, ByteRanges ranges) {
+        entries.put(asset, new Entry(ranges));
+    }
+
+    Set<String> assets() {
+        return entries.keySet();
+    }
+
+    boolean has(String asset) {
+        return entries.containsKey(asset);
+    }
+
+    ByteRanges ranges(String asset) {
+        return entries.get(asset).ranges;
+    }
+
+    boolean hashed(String asset) {
+        Entry entry = entries.get(asset);
+        return entry != null && entry.hashed;
+    }
+
+    int crc(String asset) {
+        return entries.get(asset).crc;
+    }
+
+    // Hashes the asset's bytes in rom, the ROM the manifest was built from.
+    int hash(RomReader rom, String asset) {
+        Entry entry = entries.get(asset);
+        if (!entry.hashed) {
+            CRC32C crc = new CRC32C();
+            for (int i = 0; i < entry.ranges.count(); i++) {
+                int start = Math.min(entry.ranges.start(i), rom.size());
+                crc.update(rom.slice(start, Math.min(entry.ranges.end(i), rom.size()) - start));
+            }
+            entry.crc = (int) crc.getValue();
+            entry.hashed = true;
+        }
+        return entry.crc;
+    }
+
+    // For an asset whose bytes are known to be unchanged since other was hashed.
+    void copyHash(AssetManifest other, String asset) {
+        Entry entry = entries.get(asset);
+        entry.crc = other.crc(asset);
+        entry.hashed = true;
+    }
+
+    void write(RomReader rom, Path path) throws IOException {
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(path))) {
+            w.printf("rom\t%08x\t%d\n", romCrc, romSize);
+            for (String asset : entries.keySet()) {
+                w.printf("%s\t%08x\t%s\n", asset, hash(rom, asset), entries.get(asset).ranges);
+            }
+        }
+    }
+
+    static AssetManifest read(Path path) throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(path)) {
+            String[] rom = r.readLine().split("\t");
+            if (!rom[0].equals("rom")) {
+                throw new IOException(path + ": not a manifest");
+            }
+            AssetManifest manifest = new AssetManifest(Integer.parseUnsignedInt(rom[1], 16), Integer.parseInt(rom[2]));
+            for (String line = r.readLine(); line != null; line = r.readLine()) {
+                String[] fields = line.split("\t", -1);
+                Entry entry = new Entry(ByteRanges.parse(fields[2]));
+                entry.crc = Integer.parseUnsignedInt(fields[1], 16);
+                entry.hashed = true;
+                manifest.entries.put(fields[0], entry);
+            }
+            return manifest;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+import java.awt.image.BufferedImage;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Extracts many ROMs in one JVM on one shared pool, each into outRoot/<rom name>/.
+// Every ROM's work is cut into small jobs (species chunks, single maps, the string and encounter dumps).
+// At most maxOpen ROMs are open at a time, and their jobs are queued round-robin with no more than two
+// per pool thread waiting, so a hack with hundreds of maps only delays the others by its share of the
+// pool instead of holding it until it is done. The next ROM is opened when one finishes, which keeps
+// memory (mappings, indexes, sprite sheets) bounded by maxOpen however many ROMs are given.
+// Jobs never block on other jobs; follow-up work such as writing a sprite sheet is chained with
+// CompletableFuture.
+// Maps and sprite sheets go through a ContentStore under outRoot/objects, so ROMs sharing them (hacks of
+// one base game, regional revisions) encode each distinct image once and link to it elsewhere.
+// With an export URL every ROM also gets an export job, each on its own connection.
+// Each directory also gets a manifest.tsv of the ROM bytes behind every output, see IncrementalExtractor.
+//   java Main --batch [--threads N] [--open N] [--out DIR] [--export JDBC-URL] <rom or directory>...
+public class BatchExtractor {
+    static final int NUM_POKEMON = 386;
+    static final int SPECIES_PER_JOB = 32;
+    static final int DEFAULT_OPEN = 4;
+
+    private final Path outRoot;
+    private final ExecutorService pool;
+    private final int maxOpen;
+    private final Semaphore queued;
+    private final AssetCache cache;
+    private final String exportUrl;
+    private final ContentStore objects;
+
+    public BatchExtractor(Path outRoot, int parallelism) {
+        this(outRoot, parallelism, null);
+    }
+
+    // exportUrl is a JDBC URL to export every ROM to, or null
+    public BatchExtractor(Path outRoot, int parallelism, String exportUrl) {
+        this(outRoot, parallelism, exportUrl, DEFAULT_OPEN);
+    }
+
+    // maxOpen is how many ROMs are read at once, each costs its mapping and a sprite sheet (~25 MB)
+    public BatchExtractor(Path outRoot, int parallelism, String exportUrl, int maxOpen) {
+        this.outRoot = outRoot;
+        this.exportUrl = exportUrl;
+        this.maxOpen = Math.max(1, maxOpen);
+        this.queued = new Semaphore(2 * parallelism);
+        this.objects = new ContentStore(outRoot.resolve("objects"));
+        this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "batch");
+            t.setDaemon(true);
+            return t;
+        });
+        this.cache = new AssetCache(256 << 20, true);
+    }
+
+    // ROM files from the arguments, directories expanded to the .gba files directly inside them.
+    static List<Path> findRoms(List<String> paths) throws Exception {
+        List<Path> roms = new ArrayList<>();
+        for (String p : paths) {
+            Path path = Path.of(p);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    roms.addAll(files.filter(f -> f.getFileName().toString().toLowerCase().endsWith(".gba"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                roms.add(path);
+            }
+        }
+        return roms;
+    }
+
+    // The submitters for one ROM's jobs, the futures of those already submitted and, once the last one has
+    // been submitted, the ROM's completion.
+    private static final class RomJobs {
+        final Path path;
+        final RomReader rom;
+        final List<Supplier<CompletableFuture<?>>> submitters = new ArrayList<>();
+        final List<CompletableFuture<?>> submitted = new ArrayList<>();
+        int next;
+        CompletableFuture<Void> done;
+
+        RomJobs(Path path, RomReader rom) {
+            this.path = path;
+            this.rom = rom;
+        }
+    }
+
+    // Allocated by whichever of the ROM's sprite chunks runs first, so a ROM waiting in the queue holds
+    // no sheet.
+    private static final class SheetHolder {
+        private final SpriteExtractor extractor;
+        private SpriteExtractor.Sprites sprites;
+
+        SheetHolder(SpriteExtractor extractor) {
+            this.extractor = extractor;
+        }
+
+        synchronized SpriteExtractor.Sprites get() {
+            if (sprites == null) {
+                sprites = extractor.newSprites(NUM_POKEMON, 5);
+            }
+            return sprites;
+        }
+    }
+
+    // Returns the number of ROMs that failed.
+    public int run(List<Path> roms) throws Exception {
+        if (exportUrl != null) {
+            try (PostgresExporter exporter = new PostgresExporter(exportUrl, cache)) {
+                exporter.createSchema();
+            }
+        }
+
+        ArrayDeque<Path> pending = new ArrayDeque<>(roms);
+        List<RomJobs> open = new ArrayList<>();
+        int failed = 0;
+        // all submitting happens on this thread, so RomJobs needs no locking
+        while (!pending.isEmpty() || !open.isEmpty()) {
+            while (open.size() < maxOpen && !pending.isEmpty()) {
+                Path path = pending.poll();
+                try {
+                    open.add(plan(path));
+                } catch (Exception e) {
+                    System.out.printf("%s: failed to open: %s\n", path, e);
+                    failed++;
+                }
+            }
+
+            // round-robin: the next job of every open ROM, waiting for room in the queue before each
+            boolean any = false;
+            for (RomJobs jobs : open) {
+                if (jobs.next == jobs.submitters.size()) continue;
+                queued.acquire();
+                CompletableFuture<?> job = jobs.submitters.get(jobs.next++).get();
+                job.whenComplete((v, e) -> queued.release());
+                jobs.submitted.add(job);
+                if (jobs.next == jobs.submitters.size()) {
+                    jobs.done = CompletableFuture.allOf(jobs.submitted.toArray(new CompletableFuture<?>[0]))
+                            .whenComplete((v, e) -> close(jobs.rom));
+                }
+                any = true;
+            }
+
+            if (!any && !open.isEmpty()) {
+                // everything of the open ROMs is queued, wait for one to finish before opening the next
+                CompletableFuture.anyOf(open.stream().map(jobs -> jobs.done).toArray(CompletableFuture<?>[]::new))
+                        .exceptionally(e -> null).join();
+            }
+            for (Iterator<RomJobs> it = open.iterator(); it.hasNext(); ) {
+                RomJobs jobs = it.next();
+                if (jobs.done == null || !jobs.done.isDone()) continue;
+                it.remove();
+                try {
+                    jobs.done.join();
+                    System.out.printf("%s: done, text %s\n", jobs.path, jobs.rom.text());
+                } catch (CompletionException e) {
+                    System.out.printf("%s: failed: %s\n", jobs.path, e.getCause());
+                    failed++;
+                }
+            }
+        }
+        pool.shutdown();
+        System.out.println("Asset cache: " + cache);
+        System.out.println("Outputs: " + objects);
+        System.out.print(Metrics.summary());
+        return failed;
+    }
+
+    private RomJobs plan(Path path) throws Exception {
+        String name = path.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+        Path dir = outRoot.resolve(name);
+        Files.createDirectories(dir.resolve("maps"));
+
+        RomReader rom = new RomReader(path);
+        RomJobs jobs = new RomJobs(path, rom);
+        int masterTable = rom.tables().mapBanks();
+        MapIndex mapIndex = MapIndex.build(rom, masterTable);
+        MapRenderer mapRenderer = new MapRenderer(rom, cache);
+        SpriteExtractor extractor = new SpriteExtractor(rom, cache, 0, 0, false);
+        SheetHolder sheet = new SheetHolder(extractor);
+
+        submit(jobs, () -> strings(rom, dir.resolve("strings.txt")));
+        submit(jobs, () -> encounters(rom, mapIndex, dir.resolve("encounters.txt"), dir.resolve("locations.txt")));
+        submit(jobs, () -> species(rom, dir.resolve("species.txt")));
+        submit(jobs, () -> manifest(rom, mapIndex, masterTable, dir.resolve(IncrementalExtractor.MANIFEST)));
+        if (exportUrl != null) {
+            submit(jobs, () -> export(name, rom, mapIndex));
+        }
+
+        List<CompletableFuture<?>> chunks = new ArrayList<>();
+        for (int from = 1; from <= NUM_POKEMON; from += SPECIES_PER_JOB) {
+            final int first = from;
+            final int last = Math.min(from + SPECIES_PER_JOB - 1, NUM_POKEMON);
+            jobs.submitters.add(() -> {
+                CompletableFuture<Void> chunk = CompletableFuture.runAsync(() -> extractor.extractRange(sheet.get(), first, last), pool);
+                chunks.add(chunk);
+                return chunk;
+            });
+        }
+        // runs after the last chunk's submitter, so every chunk future exists by then
+        jobs.submitters.add(() -> CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]))
+                .thenRunAsync(() -> {
+                    SpriteExtractor.Sprites sprites = sheet.get();
+                    if (sprites.failed() > 0) {
+                        System.out.printf("%s: %d species left with blank sprite cells\n", path, sprites.failed());
+                    }
+                    writeSheet(sprites.sheet.toImage(), dir.resolve("sprites.png"));
+                }, pool));
+
+        for (int m = 0; m < mapIndex.count(); m++) {
+            if (!MapRenderer.renderable(mapIndex, m)) continue;
+            final int map = m;
+            String file = String.format("map_%02d_%02d.png", mapIndex.bank(map), mapIndex.mapNumber(map));
+            submit(jobs, () -> store(mapRenderer.digest(mapIndex, map), dir.resolve("maps").resolve(file),
+                    () -> mapRenderer.render(mapIndex, map)));
+        }
+        return jobs;
+    }
+
+    private void submit(RomJobs jobs, Runnable body) {
+        jobs.submitters.add(() -> CompletableFuture.runAsync(body, pool));
+    }
+
+    static void strings(RomReader rom, Path out) {
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(out))) {
+            StringPool names = rom.readStrings(rom.tables().speciesNames() + 11, 11, NUM_POKEMON);
+            for (int i = 0; i < names.count(); i++) {
+                w.printf("species\t%d\t", i + 1);
+                names.write(i, w);
+                w.write('\n');
+            }
+            StringPool types = rom.readStrings(rom.tables().typeNames(), 7, 18);
+            for (int i = 0; i < types.count(); i++) {
+                w.printf("type\t%d\t", i);
+                types.write(i, w);
+                w.write('\n');
+            }
+            StringPool maps = rom.readStringTable(rom.tables().mapNames(), 109);
+            for (int i = 0; i < maps.count(); i++) {
+                w.printf("map\t%d\t", i);
+                maps.write(i, w);
+                w.write('\n');
+            }
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    // one row per species, tab separated, for the analytics jobs
+    static void species(RomReader rom, Path out) {
+        SpeciesTable table = SpeciesTable.build(rom, rom.tables().speciesData(), NUM_POKEMON + 1);
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(out))) {
+            w.write("species\thp\tattack\tdefense\tspeed\tsp_attack\tsp_defense\ttype1\ttype2\tcatch_rate\tbase_exp"
+                    + "\titem1\titem2\tgender\tegg_cycles\tfriendship\tgrowth_rate\tegg_group1\tegg_group2"
+                    + "\tability1\tability2\tsafari_flee\tcolor\n");
+            for (int pid = 1; pid < table.count(); pid++) {
+                w.print(pid);
+                for (SpeciesTable.Stat stat : SpeciesTable.Stat.values()) {
+                    w.print('\t');
+                    w.print(table.stat(pid, stat));
+                }
+                w.printf("\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\n",
+                        table.type1(pid), table.type2(pid), table.catchRate(pid), table.baseExp(pid),
+                        table.item1(pid), table.item2(pid), table.gender(pid), table.eggCycles(pid),
+                        table.friendship(pid), table.growthRate(pid), table.eggGroup1(pid), table.eggGroup2(pid),
+                        table.ability1(pid), table.ability2(pid), table.safariFlee(pid), table.color(pid));
+            }
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    // every slot in table order, then where each species appears through the inverted index
+    static void encounters(RomReader rom, MapIndex mapIndex, Path out, Path locations) {
+        EncounterTable table = EncounterTable.build(rom, rom.tables().encounters(), mapIndex);
+        StringPool mapNames = rom.readStringTable(rom.tables().mapNames(), 109);
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(out))) {
+            for (int slot = 0; slot < table.slots(); slot++) {
+                int h = table.header(slot);
+                w.printf("%d\t%d\t%s\t%d\t%d\t%d\t%d\t%d\t", table.bank(h), table.mapNumber(h), table.habitat(slot),
+                        table.rate(h, table.habitat(slot)), table.slotIndex(slot), table.species(slot),
+                        table.minLevel(slot), table.maxLevel(slot));
+                writeMapName(w, table, h, mapIndex, mapNames);
+                w.write('\n');
+            }
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(locations))) {
+            for (int pid = 1; pid <= NUM_POKEMON; pid++) {
+                for (int slot : table.slotsOf(pid)) {
+                    int h = table.header(slot);
+                    w.printf("%d\t%d\t%d\t%s\t", pid, table.bank(h), table.mapNumber(h), table.habitat(slot));
+                    writeMapName(w, table, h, mapIndex, mapNames);
+                    w.write('\n');
+                }
+            }
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void writeMapName(PrintWriter w, EncounterTable table, int h, MapIndex mapIndex, StringPool mapNames)
+            throws Exception {
+        int name = table.mapName(h, mapIndex);
+        if (name >= 0 && name < mapNames.count()) {
+            mapNames.write(name, w);
+        }
+    }
+
+    // what every output was read from, for IncrementalExtractor to update this directory later
+    private static void manifest(RomReader rom, MapIndex mapIndex, int masterTable, Path out) {
+        try {
+            AssetManifest.build(rom, mapIndex, masterTable, NUM_POKEMON).write(rom, out);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void export(String name, RomReader rom, MapIndex mapIndex) {
+        try (PostgresExporter exporter = new PostgresExporter(exportUrl, cache)) {
+            System.out.print(exporter.export(name, rom, mapIndex, NUM_POKEMON));
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    // rendering the sheet is cheap, encoding it is not: identical sheets across ROMs are encoded once
+    private void writeSheet(BufferedImage sheet, Path out) {
+        MessageDigest md = ContentStore.sha256();
+        ContentStore.update(md, new int[] { sheet.getWidth(), sheet.getHeight() });
+        ContentStore.update(md, TileDecoder.pixels(sheet));
+        store(ContentStore.hex(md.digest()), out, () -> sheet);
+    }
+
+    private void store(String digest, Path out, Supplier<BufferedImage> render) {
+        try {
+            objects.write(digest, out, render);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void close(RomReader rom) {
+        try {
+            rom.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
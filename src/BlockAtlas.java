@@ -0,0 +1,51 @@
+// Every block of a TileAtlas pre-rendered once as a 16x16 ARGB strip (down layer, then up layer over it),
+// so drawing a map is copying block rows instead of decoding 8 tiles per cell. Built once per tileset pair
+// and shared by every map using that pair.
+class BlockAtlas {
+    static final int BLOCK_SIZE = SpriteBuilder.BLOCK_W;
+    static final int BLOCK_PIXELS = BLOCK_SIZE * BLOCK_SIZE;
+
+    final TileAtlas tiles;
+    final int[] pixels; // block b is pixels[b * BLOCK_PIXELS, (b + 1) * BLOCK_PIXELS), rows BLOCK_SIZE apart
+
+    BlockAtlas(TileAtlas tiles) {
+        this.tiles = tiles;
+        this.pixels = new int[tiles.blockCount * BLOCK_PIXELS];
+        for (int b = 0; b < tiles.blockCount; b++) {
+            for (TileOrder order : TileOrder.values()) {
+                drawTile(b, order);
+            }
+        }
+        Metrics.add(Metrics.Counter.TILES_DECODED, (long) tiles.blockCount * TileOrder.values().length);
+    }
+
+    private void drawTile(int block, TileOrder order) {
+        int value = tiles.tile(block, order) & 0xFFFF;
+        int corner = order.ordinal() & 3; // TopLeft, TopRight, BottomLeft, BottomRight for both layers
+        boolean up = order.ordinal() >= 4;
+        int dstOffset = block * BLOCK_PIXELS + (corner >> 1) * TileDecoder.TILE_SIZE * BLOCK_SIZE
+                + (corner & 1) * TileDecoder.TILE_SIZE;
+
+        Palette palettes = tiles.palettes;
+        TileDecoder.decodeTile(tiles.tiles, TileInfo.tileIndex(value) * TileDecoder.TILE_BYTES,
+                palettes.argb(), palettes.offset(TileInfo.palette(value)), pixels, dstOffset, BLOCK_SIZE,
+                TileInfo.hFlip(value), TileInfo.vFlip(value), up);
+    }
+
+    // Draws the map's cells (block index in the low 10 bits) into out, a width * 16 pixels wide raster.
+    // Blocks the atlas does not have are left untouched.
+    void drawMap(short[] cells, int width, int height, int[] out) {
+        int stride = width * BLOCK_SIZE;
+        for (int r = 0; r < height; r++) {
+            for (int y = 0; y < BLOCK_SIZE; y++) {
+                int row = (r * BLOCK_SIZE + y) * stride;
+                for (int c = 0; c < width; c++) {
+                    int block = cells[r * width + c] & 0x3FF;
+                    if (block < tiles.blockCount) {
+                        System.arraycopy(pixels, block * BLOCK_PIXELS + y * BLOCK_SIZE, out, row + c * BLOCK_SIZE, BLOCK_SIZE);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,18 +1,40 @@
-import java.util.List;
-
+// A block's 8 tile references (TileOrder) read in place from a packed short[], either a single block's
+// stripe or a whole tileset's block table, 8 shorts per block. Tiles are decoded on access.
 public class BlockInfo {
     static final int BYTES = 16;
-    private List<TileInfo> tiles;
+    static final int TILES = BYTES / 2;
+
+    private final short[] tiles;
+    private final int offset;
+
+    public BlockInfo(short[] tiles) {
+        this(tiles, 0);
+    }
 
-    public BlockInfo(List<TileInfo> tiles) {
+    private BlockInfo(short[] tiles, int offset) {
         this.tiles = tiles;
+        this.offset = offset;
+    }
+
+    // Block number block of a block table, sharing the table.
+    static BlockInfo of(short[] table, int block) {
+        return new BlockInfo(table, block * TILES);
     }
 
     public TileInfo getTile(TileOrder tileOrder) {
-        return tiles.get(tileOrder.ordinal());
+        return TileInfo.of(getValue(tileOrder));
+    }
+
+    public int getValue(TileOrder tileOrder) {
+        return tiles[offset + tileOrder.ordinal()] & 0xFFFF;
     }
 
     public String toString() {
-        return tiles.toString();
+        StringBuilder sb = new StringBuilder("[");
+        for (TileOrder order : TileOrder.values()) {
+            if (order.ordinal() > 0) sb.append(", ");
+            sb.append(getTile(order));
+        }
+        return sb.append(']').toString();
     }
 }
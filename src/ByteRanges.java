@@ -0,0 +1,142 @@
+import java.util.Arrays;
+
+// A set of ROM byte ranges, sorted and merged into disjoint [start, end) pairs so intersects() is a
+// binary search. Used both for what a patch changed and for what an extracted asset was read from.
+final class ByteRanges {
+    static final ByteRanges EMPTY = new ByteRanges(new int[0], new int[0]);
+
+    private final int[] starts;
+    private final int[] ends;
+
+    private ByteRanges(int[] starts, int[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    int count() {
+        return starts.length;
+    }
+
+    int start(int i) {
+        return starts[i];
+    }
+
+    int end(int i) {
+        return ends[i];
+    }
+
+    long bytes() {
+        long total = 0;
+        for (int i = 0; i < starts.length; i++) {
+            total += ends[i] - starts[i];
+        }
+        return total;
+    }
+
+    // Whether any range overlaps [start, end), never for an empty one.
+    boolean intersects(int start, int end) {
+        if (end <= start) return false;
+        // first range ending after start, it overlaps if it also begins before end
+        int lo = 0;
+        int hi = ends.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= start) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo < starts.length && starts[lo] < end;
+    }
+
+    boolean intersects(ByteRanges other) {
+        ByteRanges small = count() <= other.count() ? this : other;
+        ByteRanges large = small == this ? other : this;
+        for (int i = 0; i < small.count(); i++) {
+            if (large.intersects(small.starts[i], small.ends[i])) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ByteRanges)) return false;
+        ByteRanges r = (ByteRanges) o;
+        return Arrays.equals(starts, r.starts) && Arrays.equals(ends, r.ends);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(starts) * 31 + Arrays.hashCode(ends);
+    }
+
+    // "start-end" pairs in hex, space separated, what the manifest stores and parse() reads back
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(starts.length * 14);
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(Integer.toHexString(starts[i])).append('-').append(Integer.toHexString(ends[i]));
+        }
+        return sb.toString();
+    }
+
+    static ByteRanges parse(String s) {
+        Builder b = new Builder();
+        for (String pair : s.trim().split(" ")) {
+            if (pair.isEmpty()) continue;
+            int dash = pair.indexOf('-');
+            b.add(Integer.parseUnsignedInt(pair.substring(0, dash), 16), Integer.parseUnsignedInt(pair.substring(dash + 1), 16));
+        }
+        return b.build();
+    }
+
+    // Ranges in any order, overlapping or not; empty ones are dropped.
+    static final class Builder {
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int count;
+
+        Builder add(int start, int end) {
+            if (end <= start) return this;
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+            return this;
+        }
+
+        Builder add(ByteRanges ranges) {
+            for (int i = 0; i < ranges.count(); i++) {
+                add(ranges.starts[i], ranges.ends[i]);
+            }
+            return this;
+        }
+
+        ByteRanges build() {
+            if (count == 0) return EMPTY;
+            // sort pairs by start through one long per pair, then merge overlapping and touching neighbours
+            long[] pairs = new long[count];
+            for (int i = 0; i < count; i++) {
+                pairs[i] = (long) starts[i] << 32 | (ends[i] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(pairs);
+            int[] s = new int[count];
+            int[] e = new int[count];
+            int n = 0;
+            for (long pair : pairs) {
+                int start = (int) (pair >>> 32);
+                int end = (int) pair;
+                if (n > 0 && start <= e[n - 1]) {
+                    e[n - 1] = Math.max(e[n - 1], end);
+                } else {
+                    s[n] = start;
+                    e[n] = end;
+                    n++;
+                }
+            }
+            return new ByteRanges(Arrays.copyOf(s, n), Arrays.copyOf(e, n));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Image outputs addressed by a digest of everything that determines their pixels. The first output with
+// a digest is rendered and encoded once into objects/<digest>.png; every later one, from the same ROM or
+// any other in the batch, becomes a hard link to that file (a copy where links are not supported), so
+// identical maps and sprite sheets across similar ROMs cost one render and one encode in total.
+class ContentStore {
+    private final Path objects;
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> written = new ConcurrentHashMap<>();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder referenced = new LongAdder();
+
+    ContentStore(Path objects) {
+        this.objects = objects;
+    }
+
+    // Writes target as the image with this digest, calling render only if no earlier output had it.
+    void write(String digest, Path target, Supplier<BufferedImage> render) throws IOException {
+        CompletableFuture<Path> mine = new CompletableFuture<>();
+        CompletableFuture<Path> first = written.putIfAbsent(digest, mine);
+        Path object;
+        if (first == null) {
+            object = objects.resolve(digest + ".png");
+            try {
+                Files.createDirectories(objects);
+                SpriteBuilder.WriteImage(render.get(), object.toString());
+            } catch (Exception e) {
+                written.remove(digest, mine);
+                mine.completeExceptionally(e);
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            mine.complete(object);
+            stored.increment();
+        } else {
+            // the first writer is already running, so this wait is short and cannot deadlock the pool
+            object = first.join();
+            referenced.increment();
+        }
+        link(object, target);
+    }
+
+    private static void link(Path object, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, object);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(object, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void update(MessageDigest md, short[] values) {
+        ByteBuffer buf = ByteBuffer.allocate(values.length * Short.BYTES);
+        buf.asShortBuffer().put(values);
+        md.update(buf);
+    }
+
+    static void update(MessageDigest md, int[] values) {
+        ByteBuffer buf = ByteBuffer.allocate(values.length * Integer.BYTES);
+        buf.asIntBuffer().put(values);
+        md.update(buf);
+    }
+
+    static String hex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d images encoded, %d written as references", stored.sum(), referenced.sum());
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Opt-in dump of what was read from the ROM, one JSON object per line (NDJSON), e.g.
+//   {"type":"map","bank":3,"map":0,"header":"0x350618",...}
+// A record is only built when its level is enabled, so a run without a log does no per-element
+// formatting at all. Finished lines go through a bounded queue to a writer thread, so extraction never
+// waits on the console or the disk unless the writer falls a whole queue behind.
+//
+//   if (log.enabled(DiagnosticLog.Level.DETAIL)) {
+//       log.record("block").field("map", m).field("block", b).send();
+//   }
+final class DiagnosticLog implements AutoCloseable {
+    // each level includes the ones before it
+    enum Level {
+        OFF,     // nothing
+        SUMMARY, // one record per map, tileset, encounter header and species
+        DETAIL,  // plus every block of a map's layout and every encounter slot
+        TRACE    // plus the raw bytes of every tile
+    }
+
+    static final DiagnosticLog DISABLED = new DiagnosticLog(null, Level.OFF, false);
+
+    private static final int QUEUE = 4096;
+    private static final String END = new String("end");
+
+    private final Writer out;
+    private final Level level;
+    private final boolean closeOut;
+    private final BlockingQueue<String> queue;
+    private final Thread writer;
+    private volatile IOException failure;
+
+    private DiagnosticLog(Writer out, Level level, boolean closeOut) {
+        this.out = out;
+        this.level = level;
+        this.closeOut = closeOut;
+        if (level == Level.OFF) {
+            this.queue = null;
+            this.writer = null;
+            return;
+        }
+        this.queue = new ArrayBlockingQueue<>(QUEUE);
+        this.writer = new Thread(this::drain, "diagnostics");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // path "-" is stdout; a null path or level OFF gives DISABLED
+    static DiagnosticLog open(String path, Level level) throws IOException {
+        if (path == null || level == Level.OFF) {
+            return DISABLED;
+        }
+        if (path.equals("-")) {
+            return new DiagnosticLog(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 << 10), level, false);
+        }
+        return new DiagnosticLog(Files.newBufferedWriter(Path.of(path), StandardCharsets.UTF_8), level, true);
+    }
+
+    boolean enabled(Level l) {
+        return l != Level.OFF && l.compareTo(level) <= 0;
+    }
+
+    Record record(String type) {
+        return new Record(type);
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>(256);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, 255);
+                for (String line : batch) {
+                    if (line == END) {
+                        out.flush();
+                        return;
+                    }
+                    out.write(line);
+                    out.write('\n');
+                }
+                batch.clear();
+                if (queue.isEmpty()) {
+                    out.flush(); // keeps a tail -f or a pipe current when extraction pauses
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            queue.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Waits for every sent record to be written, then closes the file. Throws if a write failed.
+    @Override
+    public void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        try {
+            if (failure == null) {
+                queue.put(END);
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (closeOut) {
+            out.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // One JSON object, fields in the order added. Offsets go through hex so they match a hex editor.
+    final class Record {
+        private final StringBuilder sb = new StringBuilder(128);
+
+        private Record(String type) {
+            sb.append("{\"type\":");
+            string(type);
+        }
+
+        Record field(String name, long value) {
+            name(name).append(value);
+            return this;
+        }
+
+        Record field(String name, String value) {
+            name(name);
+            if (value == null) {
+                sb.append("null");
+            } else {
+                string(value);
+            }
+            return this;
+        }
+
+        Record field(String name, boolean value) {
+            name(name).append(value);
+            return this;
+        }
+
+        Record field(String name, int[] values) {
+            name(name).append('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(values[i]);
+            }
+            sb.append(']');
+            return this;
+        }
+
+        // "0x" and at least 6 upper-case hex digits, the way offsets are written everywhere else
+        Record hex(String name, int value) {
+            name(name).append("\"0x");
+            String digits = Integer.toHexString(value).toUpperCase();
+            for (int i = digits.length(); i < 6; i++) {
+                sb.append('0');
+            }
+            sb.append(digits).append('"');
+            return this;
+        }
+
+        // bytes [offset, offset + length) as one hex string
+        Record bytes(String name, byte[] values, int offset, int length) {
+            name(name).append('"');
+            for (int i = offset; i < offset + length; i++) {
+                sb.append(Character.forDigit((values[i] >>> 4) & 0xF, 16)).append(Character.forDigit(values[i] & 0xF, 16));
+            }
+            sb.append('"');
+            return this;
+        }
+
+        // Queues the record. Blocks only while the writer is a full queue behind.
+        void send() {
+            if (failure != null) {
+                return;
+            }
+            sb.append('}');
+            try {
+                queue.put(sb.toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private StringBuilder name(String name) {
+            sb.append(',');
+            string(name);
+            return sb.append(':');
+        }
+
+        private void string(String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+    }
+}
@@ -0,0 +1,245 @@
+import java.util.Arrays;
+
+// Every wild encounter in the ROM, read in one walk of the header table and kept in flat primitive
+// arrays. Slots are numbered 0..slots()-1, grouped by header then habitat, and an inverted index maps
+// each species to the slots it appears in, so "where does X appear" never rescans the table.
+//
+// Headers are 20 bytes: bank, map, 2 padding, then land, water, rock smash and fishing info pointers
+// (0 when the map has none). The table ends with a 0xFF 0xFF header. An info is the encounter rate,
+// 3 padding and a pointer to its slots; a slot is min level, max level and a 16-bit species.
+// https://bulbapedia.bulbagarden.net/wiki/Wild_Pok%C3%A9mon_data_structure_(Generation_III)
+public class EncounterTable {
+    static final int HEADER_BYTES = 20;
+    static final int SLOT_BYTES = 4;
+    private static final int END = 0xFF;
+    private static final int MAX_HEADERS = 1024;
+    // map section ids of FireRed's map names start at 0x58, the first entry of the name table
+    static final int FIRST_LABEL = 0x58;
+
+    public enum Habitat {
+        LAND(12), WATER(5), ROCK_SMASH(5), FISHING(10);
+
+        final int slots;
+
+        Habitat(int slots) {
+            this.slots = slots;
+        }
+    }
+
+    private static final Habitat[] HABITATS = Habitat.values();
+
+    // per header
+    private final byte[] bank;
+    private final byte[] mapNumber;
+    private final int[] map; // index into the MapIndex, -1 when the map does not exist
+    // per (header, habitat), h * 4 + habitat
+    private final byte[] rate;
+    private final int[] groupStart; // slots of group g are [groupStart[g], groupStart[g + 1])
+
+    // per slot
+    private final int[] header;
+    private final byte[] habitat;
+    private final byte[] slotIndex;
+    private final short[] species;
+    private final byte[] minLevel;
+    private final byte[] maxLevel;
+
+    // species s appears in slots bySpecies[speciesStart[s]..speciesStart[s + 1])
+    // filled in by invert() once the highest species is known
+    private int[] speciesStart;
+    private int[] bySpecies;
+
+    private EncounterTable(int headers, int slots) {
+        this.bank = new byte[headers];
+        this.mapNumber = new byte[headers];
+        this.map = new int[headers];
+        this.rate = new byte[headers * HABITATS.length];
+        this.groupStart = new int[headers * HABITATS.length + 1];
+        this.header = new int[slots];
+        this.habitat = new byte[slots];
+        this.slotIndex = new byte[slots];
+        this.species = new short[slots];
+        this.minLevel = new byte[slots];
+        this.maxLevel = new byte[slots];
+    }
+
+    // table is the offset of the header list, e.g. rom.tables().encounters()
+    static EncounterTable build(RomReader rom, int table, MapIndex maps) {
+        // first pass sizes the arrays: which headers exist and which infos point somewhere valid
+        int headers = 0;
+        while (headers < MAX_HEADERS) {
+            int offset = table + headers * HEADER_BYTES;
+            if (offset + HEADER_BYTES > rom.size()) break;
+            if (rom.read8(offset) == END && rom.read8(offset + 1) == END) break;
+            headers++;
+        }
+        int[] infos = new int[headers * HABITATS.length];
+        int[] slotTables = new int[infos.length];
+        int slots = 0;
+        for (int g = 0; g < infos.length; g++) {
+            infos[g] = pointer(rom, table + (g / HABITATS.length) * HEADER_BYTES + 4 + (g % HABITATS.length) * 4);
+            if (infos[g] != 0) {
+                slotTables[g] = pointer(rom, infos[g] + 4);
+            }
+            if (slotTables[g] != 0 && slotTables[g] + HABITATS[g % HABITATS.length].slots * SLOT_BYTES <= rom.size()) {
+                slots += HABITATS[g % HABITATS.length].slots;
+            } else {
+                slotTables[g] = 0;
+            }
+        }
+
+        EncounterTable encounters = new EncounterTable(headers, slots);
+        for (int h = 0; h < headers; h++) {
+            int offset = table + h * HEADER_BYTES;
+            encounters.bank[h] = (byte) rom.read8(offset);
+            encounters.mapNumber[h] = (byte) rom.read8(offset + 1);
+            encounters.map[h] = maps.index(rom.read8(offset), rom.read8(offset + 1));
+        }
+
+        byte[] raw = new byte[Habitat.LAND.slots * SLOT_BYTES];
+        int s = 0;
+        for (int g = 0; g < infos.length; g++) {
+            encounters.groupStart[g] = s;
+            if (slotTables[g] == 0) continue;
+            encounters.rate[g] = (byte) rom.read8(infos[g]);
+            int n = HABITATS[g % HABITATS.length].slots;
+            rom.readBytes(slotTables[g], raw, 0, n * SLOT_BYTES);
+            for (int i = 0; i < n; i++, s++) {
+                encounters.header[s] = g / HABITATS.length;
+                encounters.habitat[s] = (byte) (g % HABITATS.length);
+                encounters.slotIndex[s] = (byte) i;
+                encounters.minLevel[s] = raw[i * SLOT_BYTES];
+                encounters.maxLevel[s] = raw[i * SLOT_BYTES + 1];
+                encounters.species[s] = (short) ((raw[i * SLOT_BYTES + 2] & 0xFF) | (raw[i * SLOT_BYTES + 3] & 0xFF) << 8);
+            }
+        }
+        encounters.groupStart[infos.length] = s;
+        encounters.invert();
+        return encounters;
+    }
+
+    // Everything build reads from the ROM: the header list and its terminator, the infos and the slots.
+    static void ranges(RomReader rom, int table, ByteRanges.Builder out) {
+        int headers = 0;
+        while (headers < MAX_HEADERS && table + (headers + 1) * HEADER_BYTES <= rom.size()) {
+            int offset = table + headers * HEADER_BYTES;
+            if (rom.read8(offset) == END && rom.read8(offset + 1) == END) {
+                out.add(offset, offset + 2);
+                break;
+            }
+            headers++;
+        }
+        out.add(table, table + headers * HEADER_BYTES);
+        for (int g = 0; g < headers * HABITATS.length; g++) {
+            int info = pointer(rom, table + (g / HABITATS.length) * HEADER_BYTES + 4 + (g % HABITATS.length) * 4);
+            if (info == 0) continue;
+            out.add(info, Math.min(info + 8, rom.size()));
+            int slots = pointer(rom, info + 4);
+            if (slots != 0) {
+                out.add(slots, Math.min(slots + HABITATS[g % HABITATS.length].slots * SLOT_BYTES, rom.size()));
+            }
+        }
+    }
+
+    private static int pointer(RomReader rom, int offset) {
+        int value = rom.read32(offset);
+        return rom.isRomPointer(value) ? RomReader.toOffset(value) : 0;
+    }
+
+    // counting sort of slots by species, slots of one species stay in table order
+    private void invert() {
+        int max = 0;
+        for (short value : species) {
+            max = Math.max(max, value & 0xFFFF);
+        }
+        speciesStart = new int[max + 2];
+        bySpecies = new int[species.length];
+        for (int s = 0; s < species.length; s++) {
+            speciesStart[(species[s] & 0xFFFF) + 1]++;
+        }
+        for (int i = 1; i < speciesStart.length; i++) {
+            speciesStart[i] += speciesStart[i - 1];
+        }
+        int[] next = Arrays.copyOf(speciesStart, speciesStart.length - 1);
+        for (int s = 0; s < species.length; s++) {
+            bySpecies[next[species[s] & 0xFFFF]++] = s;
+        }
+    }
+
+    public int headers() {
+        return bank.length;
+    }
+
+    public int slots() {
+        return species.length;
+    }
+
+    public int bank(int h) {
+        return bank[h] & 0xFF;
+    }
+
+    public int mapNumber(int h) {
+        return mapNumber[h] & 0xFF;
+    }
+
+    // the header's map in the MapIndex it was built with, or -1
+    public int map(int h) {
+        return map[h];
+    }
+
+    // Index of the header's map name in the name table, or -1 if its map is unknown.
+    public int mapName(int h, MapIndex maps) {
+        int name = map[h] < 0 ? -1 : maps.label(map[h]) - FIRST_LABEL;
+        return Math.max(name, -1);
+    }
+
+    public boolean has(int h, Habitat habitat) {
+        int g = h * HABITATS.length + habitat.ordinal();
+        return groupStart[g + 1] > groupStart[g];
+    }
+
+    public int rate(int h, Habitat habitat) {
+        return rate[h * HABITATS.length + habitat.ordinal()] & 0xFF;
+    }
+
+    // First slot of the header's habitat, its habitat.slots slots follow when has(h, habitat).
+    public int firstSlot(int h, Habitat habitat) {
+        return groupStart[h * HABITATS.length + habitat.ordinal()];
+    }
+
+    public int header(int slot) {
+        return header[slot];
+    }
+
+    public Habitat habitat(int slot) {
+        return HABITATS[habitat[slot]];
+    }
+
+    // position of the slot within its habitat, e.g. fishing 0-1 old rod, 2-4 good rod, 5-9 super rod
+    public int slotIndex(int slot) {
+        return slotIndex[slot];
+    }
+
+    public int species(int slot) {
+        return species[slot] & 0xFFFF;
+    }
+
+    public int minLevel(int slot) {
+        return minLevel[slot] & 0xFF;
+    }
+
+    public int maxLevel(int slot) {
+        return maxLevel[slot] & 0xFF;
+    }
+
+    // Slots where species appears, in table order.
+    public int[] slotsOf(int species) {
+        if (species < 0 || species + 1 >= speciesStart.length) return new int[0];
+        return Arrays.copyOfRange(bySpecies, speciesStart[species], speciesStart[species + 1]);
+    }
+
+    public int countOf(int species) {
+        if (species < 0 || species + 1 >= speciesStart.length) return 0;
+        return speciesStart[species + 1] - speciesStart[species];
+    }
+}
@@ -0,0 +1,197 @@
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import javax.imageio.ImageIO;
+
+// Brings one ROM's BatchExtractor output directory up to date with a changed ROM, e.g. a hack after its
+// latest patch, redoing only the outputs whose source bytes changed. Which outputs those are comes from the
+// directory's manifest.tsv: when it was written for the base ROM, an output is stale if its old or new
+// ranges touch a changed range (no hashing beyond the base ROM's CRC); when it was written for some other
+// version, outputs are compared by the CRC of their bytes instead. Without a manifest the base ROM's is
+// built on the spot, which only follows pointers and decodes nothing.
+//   java Main --update DIR <base rom> <patch.ips | patch.ups | new rom>
+class IncrementalExtractor {
+    static final String MANIFEST = "manifest.tsv";
+
+    private final Path dir;
+    private final AssetCache cache;
+    private final int parallelism;
+
+    IncrementalExtractor(Path dir, AssetCache cache, int parallelism) {
+        this.dir = dir;
+        this.cache = cache;
+        this.parallelism = parallelism;
+    }
+
+    // target is base with changed applied; dir is rewritten to match target, manifest included.
+    Report update(RomReader base, RomReader target, ByteRanges changed) throws Exception {
+        Report report = new Report(changed);
+        int numSpecies = BatchExtractor.NUM_POKEMON;
+
+        Path manifestPath = dir.resolve(MANIFEST);
+        AssetManifest previous;
+        if (Files.exists(manifestPath)) {
+            previous = AssetManifest.read(manifestPath);
+        } else {
+            int baseMaster = base.tables().mapBanks();
+            previous = AssetManifest.build(base, MapIndex.build(base, baseMaster), baseMaster, numSpecies);
+        }
+        int masterTable = target.tables().mapBanks();
+        MapIndex mapIndex = MapIndex.build(target, masterTable);
+        AssetManifest next = AssetManifest.build(target, mapIndex, masterTable, numSpecies);
+
+        report.byRanges = previous.romCrc == base.crc32c(0, base.size()) && previous.romSize == base.size();
+        List<String> stale = new ArrayList<>();
+        for (String asset : next.assets()) {
+            boolean changedAsset;
+            if (!previous.has(asset)) {
+                changedAsset = true;
+            } else if (report.byRanges) {
+                changedAsset = previous.ranges(asset).intersects(changed) || next.ranges(asset).intersects(changed);
+            } else {
+                changedAsset = !previous.hashed(asset) || previous.crc(asset) != next.hash(target, asset);
+            }
+            if (changedAsset) {
+                stale.add(asset);
+            } else if (previous.hashed(asset)) {
+                next.copyHash(previous, asset);
+            }
+        }
+        for (String asset : previous.assets()) {
+            if (!next.has(asset)) {
+                report.removed++;
+                if (AssetManifest.spriteId(asset) < 0) {
+                    Files.deleteIfExists(dir.resolve(asset));
+                }
+            }
+        }
+
+        Files.createDirectories(dir.resolve("maps"));
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            List<Integer> sprites = new ArrayList<>();
+            MapRenderer mapRenderer = new MapRenderer(target, cache);
+            Map<String, Integer> maps = new HashMap<>();
+            for (int m = 0; m < mapIndex.count(); m++) {
+                maps.put(AssetManifest.map(mapIndex.bank(m), mapIndex.mapNumber(m)), m);
+            }
+            for (String asset : stale) {
+                int id = AssetManifest.spriteId(asset);
+                if (id > 0) {
+                    sprites.add(id);
+                    continue;
+                }
+                if (asset.endsWith(".txt")) {
+                    report.texts++;
+                }
+                switch (asset) {
+                    case AssetManifest.STRINGS:
+                        tasks.add(pool.submit(() -> BatchExtractor.strings(target, dir.resolve(asset))));
+                        break;
+                    case AssetManifest.SPECIES:
+                        tasks.add(pool.submit(() -> BatchExtractor.species(target, dir.resolve(asset))));
+                        break;
+                    case AssetManifest.ENCOUNTERS:
+                        tasks.add(pool.submit(() -> BatchExtractor.encounters(target, mapIndex, dir.resolve(asset),
+                                dir.resolve("locations.txt"))));
+                        break;
+                    default:
+                        int m = maps.get(asset);
+                        tasks.add(pool.submit(() -> {
+                            replace(mapRenderer.render(mapIndex, m), dir.resolve(asset));
+                            return null;
+                        }));
+                        report.maps++;
+                }
+            }
+            if (!sprites.isEmpty() || !Files.exists(dir.resolve(AssetManifest.SPRITES))) {
+                report.sprites = sprites(target, sprites, numSpecies, pool);
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        next.write(target, manifestPath);
+        report.assets = next.assets().size();
+        return report.finish();
+    }
+
+    // Redraws the given species into the existing sheet, or every species if there is no usable sheet.
+    private int sprites(RomReader target, List<Integer> ids, int numSpecies, ExecutorService pool) throws Exception {
+        SpriteExtractor extractor = new SpriteExtractor(target, cache, 0, 0, false);
+        Path out = dir.resolve(AssetManifest.SPRITES);
+        SpriteExtractor.Sprites sprites = null;
+        if (Files.exists(out)) {
+            try {
+                BufferedImage previous = ImageIO.read(out.toFile());
+                sprites = new SpriteExtractor.Sprites(numSpecies, SpriteSheet.of(previous, numSpecies,
+                        SpriteExtractor.VARIANTS, 5, SpriteBuilder.SPRITE_SIZE));
+            } catch (Exception e) {
+                sprites = null; // unreadable or a different layout, draw it all again
+            }
+        }
+        if (sprites == null) {
+            sprites = extractor.newSprites(numSpecies, 5);
+            ids = new ArrayList<>();
+            for (int id = 1; id <= numSpecies; id++) ids.add(id);
+        }
+
+        List<Future<?>> tasks = new ArrayList<>();
+        final SpriteExtractor.Sprites sheet = sprites;
+        for (int id : ids) {
+            tasks.add(pool.submit(() -> {
+                sheet.sheet.clear(id - 1);
+                extractor.extractRange(sheet, id, id);
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        replace(sheet.sheet.toImage(), out);
+        return ids.size();
+    }
+
+    // BatchExtractor's outputs may be hard links into its shared objects, so never write through them.
+    private static void replace(BufferedImage image, Path out) throws Exception {
+        Files.deleteIfExists(out);
+        SpriteBuilder.WriteImage(image, out.toString());
+    }
+
+    static final class Report {
+        private final long start = System.nanoTime();
+        private final ByteRanges changed;
+        boolean byRanges;
+        int assets;
+        int maps;
+        int sprites;
+        int texts;
+        int removed;
+        private long nanos;
+
+        Report(ByteRanges changed) {
+            this.changed = changed;
+        }
+
+        Report finish() {
+            nanos = System.nanoTime() - start;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d bytes changed in %d ranges; %s: %d maps, %d sprites, %d text files redone, "
+                            + "%d outputs removed, %d up to date, in %.1f ms\n",
+                    changed.bytes(), changed.count(), byRanges ? "by range" : "by content (manifest is for another ROM)",
+                    maps, sprites, texts, removed, assets - maps - sprites - texts, nanos / 1e6);
+        }
+    }
+}
@@ -1,17 +1,54 @@
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.nio.file.Path;
-import java.sql.*;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class Main {
+    // <rom> [storage] [--export JDBC-URL] [--log FILE|-] [--verbosity summary|detail|trace]
     public static void main(String[] args) throws Exception {
-        RomReader rom = new RomReader(Path.of(args[0]));
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(batch(args));
+        }
+        if (args.length > 0 && args[0].equals("--update")) {
+            update(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--tables")) {
+            tables(args);
+            return;
+        }
+
+        RomStorage storage = args.length > 1 && !args[1].startsWith("--")
+                ? RomStorage.valueOf(args[1].toUpperCase()) : RomStorage.MAPPED;
+        String exportUrl = option(args, "--export");
+        String verbosity = option(args, "--verbosity");
+        try (DiagnosticLog log = DiagnosticLog.open(option(args, "--log"),
+                verbosity != null ? DiagnosticLog.Level.valueOf(verbosity.toUpperCase()) : DiagnosticLog.Level.SUMMARY)) {
+            extract(args, storage, exportUrl, log);
+        }
+        System.out.print(Metrics.summary());
+    }
+
+    private static void extract(String[] args, RomStorage storage, String exportUrl, DiagnosticLog log) throws Exception {
+        RomReader rom = new RomReader(Path.of(args[0]), storage);
+        // the global tileset and its palettes are shared by nearly every map, decode them once
+        AssetCache cache = new AssetCache(64 << 20, false);
+
+        // FireRed's table pointers where they hold the tables, otherwise found by scanning the ROM for pointers
+        RomTables tables = rom.tables();
+        RomTables.Table[] all = RomTables.Table.values();
+        for (int t = 0; log.enabled(DiagnosticLog.Level.SUMMARY) && t < all.length; t++) {
+            RomTables.Table table = all[t];
+            log.record("table").field("name", table.name()).hex("offset", tables.offset(table))
+                    .hex("site", tables.site(table)).field("matched", tables.matched(table)).send();
+        }
 
         // final int pokedex = rom.read24(0x44e8b0);
-        final int names = rom.read24(0x144);
-        final int iconSprites = rom.read24(0x138);
+        final int names = tables.speciesNames();
+        final int iconSprites = tables.iconSprites();
         final int iconPalettes = rom.read24(0x13c);
         //Icon Sprites = 0x138
         //Icon Palettes = 0x13c - this is the table that determines what palette each sprite has
@@ -23,301 +60,345 @@ public class Main {
         //04–07: event pointer
         //08–0B: map scripts pointer
 
-        final int pokemonSpecies = rom.read24(0x1bc);
-        final int frontSprites = rom.read24(0x128);
-        final int backSprites = rom.read24(0x12c);
-        final int encounters = rom.read24(0x82ebc);
-
-        final int mapBank = rom.read24(0x55260); // = 71a29c
-        System.out.printf("Master Map Pointer @ 55260 -> %06X\n", mapBank);
-        // 43 contiguous bank pointers. 0x77777777 will be after the last bank pointer
-        // https://datacrystal.tcrf.net/wiki/Pok%C3%A9mon_3rd_Generation
-        for (int i = 0; i < 43; i++) {
-            int bank = rom.read24(mapBank + i * 4); // 352074
-            System.out.printf("Bank %02d @ %06X\n", i, bank);
-
-            // how to know how many maps are in this bank?
-            // 1. calculate (banks[i+1] - banks[i]) / 4
-            for (int j = 0; j < 5; j++) {
-                int map = rom.read24(bank); // 34f1f8
-                System.out.printf("Map %d.%d @ %06X\n", i, j, map);
-
-                // Below we read the TODO byte map header
-                int mapData = rom.read24(map);
-                int eventData = rom.read24(map + 4);
-                int mapScripts = rom.read24(map + 8);
-                int connections = rom.read24(map + 12);
-                System.out.printf("   Map Data @ %06X\n", mapData);
-                System.out.printf("     Events @ %06X\n", eventData);
-                System.out.printf("    Scripts @ %06X\n", mapScripts);
-                System.out.printf("Connections @ %06X\n", connections);
-
-                int musicIndex = rom.read16(map + 16); // 0x012f -> pokemon center music
-                int mapPointerIndex = rom.read16(map + 18); // 0x002f
-                int labelIndex = rom.read8(map + 20); // c4 (do not show name on entering?)
-                int visibility = rom.read8(map + 21); // 00 cave: regular
-                int weather = rom.read8(map + 22); // 00 (in house weather)
-                int mapType = rom.read8(map + 23); // 08 (inside)
-                // [24, 25] are 2 mystery bytes
-                // something for riding a bicycle on the map
-                // species floor number, above ground countr up from 01 where f1 below ground count down from ff where ff is bf1
-                int showLabelOnEntry = rom.read8(map + 26); // 00
-                int inBattleFieldModelId = rom.read8(map + 27); // 08
-                System.out.printf("      Music Index = 0x%04X\n", musicIndex);
-                System.out.printf("Map Pointer Index = 0x%04X\n", mapPointerIndex);
-                System.out.printf("      Label Index = 0x%02X\n", labelIndex);
-                System.out.printf("       Visibility = 0x%02X\n", visibility);
-                System.out.printf("          Weather = 0x%02X\n", weather);
-                System.out.printf("         Map Type = 0x%02X\n", mapType);
-                System.out.printf("       Show Label = 0x%02X\n", showLabelOnEntry);
-                System.out.printf("   Field Model ID = 0x%02X\n", inBattleFieldModelId); // fight type?
-
-                // map data
-                if (mapData != 0) {
-                    int mapWidth = rom.read24(mapData); // 16 (4 bytes)
-                    int mapHeight = rom.read24(mapData + 4); // 9 (4 bytes)
-                    int border = rom.read24(mapData + 8); // 0x2d8954, points to a single block?
-                    int tileStructure = rom.read24(mapData + 12); // 0x2d895c no 01 01 first 2 bytes.
-                    int globalTileset = rom.read24(mapData + 16); // 0x2d4c24, size 0x90 before the local tileset data starts.
-                    int localTileset = rom.read24(mapData + 20); // 0x2d4cb4 // starts with 00 01 00 00
-                    int borderWidth = rom.read8(mapData + 24); // 2
-                    int borderHeight = rom.read8(mapData + 25); // 2
-
-                    System.out.println("=== Map Data ===");
-                    System.out.printf("Dimensions: %d x %d\n", mapWidth, mapHeight);
-                    System.out.printf("        Border @ %06X\n", border); // this points to a block?
-                    System.out.printf("Tile Structure @ %06X\n", tileStructure);
-                    System.out.printf("Global Tileset @ %06X\n", globalTileset);
-                    System.out.printf(" Local Tileset @ %06X\n", localTileset);
-                    System.out.printf("Border Size: %d x %d\n", borderWidth, borderHeight);
-
-                    if (globalTileset != 0) {
-                        int compressed = rom.read8(globalTileset);
-                        int isPrimary = rom.read8(globalTileset + 1);
-                        int tilesetImage = rom.read24(globalTileset + 4); // 275304
-                        int colorPalettes = rom.read24(globalTileset + 8); // 277704
-                        int blocks = rom.read24(localTileset + 12); // 2ad824
-                        int animationRoutine = rom.read24(localTileset + 16); // 0
-                        int bahaviourAndBackgroundBytes = rom.read24(localTileset + 20); // 2b0024
-
-                        // Note: has same blocks and behaviour pointers that the local tileset has.
-                        System.out.println("=== Global Tileset Header ===");
-                        System.out.printf("Compressed = %d\n", compressed);
-                        System.out.printf("Is Primary = %d\n", isPrimary);
-                        System.out.printf("       Tileset Image @ %06X\n", tilesetImage);
-                        System.out.printf("      Color Palettes @ %06X\n", colorPalettes);
-                        System.out.printf("              Blocks @ %06X\n", blocks); // 2C6234 which is block 0x280
-                        System.out.printf("   Animation Routine @ %06X\n", animationRoutine);
-                        System.out.printf("Bahaviour & BG Bytes @ %06X\n", bahaviourAndBackgroundBytes);
-
-                        byte[] pixelBuffer = new byte[0x6000]; // some overhead for decompressing 0x5000 bytes
+        final int pokemonSpecies = tables.speciesData();
+        final int frontSprites = tables.frontSprites();
+        final int backSprites = tables.backSprites();
+        final int encounters = tables.encounters();
+
+        final int mapBank = tables.mapBanks(); // = 71a29c
+        // bank pointers up to the 0x77777777 terminator, each bank's map count comes from where the next table starts
+        MapIndex mapIndex = MapIndex.build(rom, mapBank);
+        MapRenderer mapRenderer = new MapRenderer(rom, cache);
+        // tileset header offsets whose images are already in out/
+        Set<Integer> globalTilesets = new HashSet<>();
+        Set<Integer> localTilesets = new HashSet<>();
+        if (log.enabled(DiagnosticLog.Level.SUMMARY)) {
+            log.record("rom").hex("mapBanks", mapBank).field("maps", mapIndex.count()).send();
+        }
+        for (int m = 0; m < mapIndex.count(); m++) {
+            int bank = mapIndex.bank(m);
+            int j = mapIndex.mapNumber(m);
+            int mapData = mapIndex.mapData(m);
+            if (log.enabled(DiagnosticLog.Level.SUMMARY)) {
+                log.record("map").field("bank", bank).field("map", j).field("mapsInBank", mapIndex.mapsInBank(bank))
+                        .hex("header", mapIndex.header(m))
+                        .hex("mapData", mapData)
+                        .hex("events", mapIndex.events(m))
+                        .hex("scripts", mapIndex.scripts(m))
+                        .hex("connections", mapIndex.connections(m))
+                        .field("music", mapIndex.music(m)) // 0x012f -> pokemon center music
+                        .field("layout", mapIndex.layoutId(m))
+                        .field("label", mapIndex.label(m)) // c4 (do not show name on entering?)
+                        .field("visibility", mapIndex.visibility(m)) // 00 cave: regular
+                        .field("weather", mapIndex.weather(m))
+                        .field("mapType", mapIndex.mapType(m)) // 08 (inside)
+                        .field("showLabel", mapIndex.showLabel(m))
+                        .field("battleType", mapIndex.battleType(m)) // fight type?
+                        .send();
+            }
+
+            // map data
+            if (mapData != 0) {
+                int mapWidth = mapIndex.width(m);
+                int mapHeight = mapIndex.height(m);
+                int tileStructure = mapIndex.tileStructure(m);
+                int globalTileset = mapIndex.primaryTileset(m); // size 0x90 before the local tileset data starts.
+                int localTileset = mapIndex.secondaryTileset(m);
+
+                if (log.enabled(DiagnosticLog.Level.SUMMARY)) {
+                    log.record("mapData").field("bank", bank).field("map", j)
+                            .field("width", mapWidth).field("height", mapHeight)
+                            .hex("border", mapIndex.border(m)) // this points to a block?
+                            .hex("tileStructure", tileStructure)
+                            .hex("globalTileset", globalTileset)
+                            .hex("localTileset", localTileset)
+                            .field("borderWidth", mapIndex.borderWidth(m)).field("borderHeight", mapIndex.borderHeight(m))
+                            .send();
+                }
+
+                if (globalTileset != 0) {
+                    int compressed = rom.read8(globalTileset);
+                    int isPrimary = rom.read8(globalTileset + 1);
+                    int tilesetImage = rom.read24(globalTileset + 4); // 275304
+                    int colorPalettes = rom.read24(globalTileset + 8); // 277704
+                    int blocks = rom.read24(globalTileset + 12);
+                    int animationRoutine = rom.read24(globalTileset + 16);
+                    int bahaviourAndBackgroundBytes = rom.read24(globalTileset + 20);
+
+                    if (log.enabled(DiagnosticLog.Level.SUMMARY)) {
+                        log.record("tileset").field("bank", bank).field("map", j).field("tileset", "global")
+                                .hex("header", globalTileset)
+                                .field("compressed", compressed)
+                                .field("isPrimary", isPrimary)
+                                .hex("image", tilesetImage)
+                                .hex("palettes", colorPalettes)
+                                .hex("blocks", blocks) // 2C6234 which is block 0x280
+                                .hex("animation", animationRoutine)
+                                .hex("behaviour", bahaviourAndBackgroundBytes)
+                                .send();
+                    }
+
+                    // most maps share a few tilesets, each is written once, named by its header offset
+                    if (globalTilesets.add(globalTileset)) {
                         // each 32 bytes is a new tile pixel data
                         // so tile 281 is [0x281 * 32, +32) into that buffer
+                        byte[] pixelBuffer = readTileset(rom, cache, tilesetImage, compressed != 0, 0x5000);
 
-                        rom.readBytes(tilesetImage, pixelBuffer);
-                        if (compressed != 0) {
-                            pixelBuffer = RomReader.decompressLZ10(pixelBuffer);
-                        }
-
-                        int[][][] rgbPalettes = rom.readPalettes(colorPalettes, 13, false);
+                        Palette palettes = cache.readPalettes(rom, colorPalettes, 13, false);
+                        // decoded once, each palette variant is just a new colour model over the same pixels
+                        WritableRaster tilesetRaster = SpriteBuilder.CreateIndexedRaster(pixelBuffer, 16);
                         for (int pal = 0; pal < 13; pal++) {
-                            BufferedImage tilesetImg = SpriteBuilder.CreateTilesetImage(pixelBuffer, rgbPalettes[pal], 16);
-                            SpriteBuilder.WriteImage(tilesetImg, "out/global_tileset" + pal + ".png");
+                            BufferedImage tilesetImg = SpriteBuilder.IndexedImage(tilesetRaster, palettes, pal, false);
+                            SpriteBuilder.WriteImage(tilesetImg, String.format("out/global_tileset_%06X_%d.png", globalTileset, pal));
                         }
+                    }
+                }
 
+                if (localTileset != 0) {
+                    int compressed = rom.read8(localTileset);
+                    int isPrimary = rom.read8(localTileset + 1);
+                    int tilesetImage = rom.read24(localTileset + 4);
+                    int colorPalettes = rom.read24(localTileset + 8);
+                    int blocks = rom.read24(localTileset + 12);
+                    int animationRoutine = rom.read24(localTileset + 16);
+                    int bahaviourAndBackgroundBytes = rom.read24(localTileset + 20);
+
+                    // The first 6 palettes belong to the first tileset of the map and palettes 7-12 are from the second one.
+                    // so: each tileset has 6 palettes
+                    // each tileset has 1024 tiles?
+
+                    // how can i know the bank size? the delta between this and the next bank pointers?
+                    if (log.enabled(DiagnosticLog.Level.SUMMARY)) {
+                        log.record("tileset").field("bank", bank).field("map", j).field("tileset", "local")
+                                .hex("header", localTileset)
+                                .field("compressed", compressed)
+                                .field("isPrimary", isPrimary)
+                                .hex("image", tilesetImage)
+                                .hex("palettes", colorPalettes)
+                                .hex("blocks", blocks) // 2C6234 which is block 0x280
+                                .hex("animation", animationRoutine)
+                                .hex("behaviour", bahaviourAndBackgroundBytes)
+                                .send();
                     }
 
-                    if (localTileset != 0) {
-                        int compressed = rom.read8(localTileset);
-                        int isPrimary = rom.read8(localTileset + 1);
-                        int tilesetImage = rom.read24(localTileset + 4);
-                        int colorPalettes = rom.read24(localTileset + 8);
-                        int blocks = rom.read24(localTileset + 12);
-                        int animationRoutine = rom.read24(localTileset + 16);
-                        int bahaviourAndBackgroundBytes = rom.read24(localTileset + 20);
-
-                        // The first 6 palettes belong to the first tileset of the map and palettes 7-12 are from the second one.
-                        // so: each tileset has 6 palettes
-                        // each tileset has 1024 tiles?
-
-                        // how can i know the bank size? the delta between this and the next bank pointers?
-                        System.out.println("=== Local Tileset Header ===");
-                        System.out.printf("Compressed = %d\n", compressed);
-                        System.out.printf("Is Primary = %d\n", isPrimary);
-                        System.out.printf("       Tileset Image @ %06X\n", tilesetImage);
-                        System.out.printf("      Color Palettes @ %06X\n", colorPalettes);
-                        System.out.printf("              Blocks @ %06X\n", blocks); // 2C6234 which is block 0x280
-                        System.out.printf("   Animation Routine @ %06X\n", animationRoutine);
-                        System.out.printf("Bahaviour & BG Bytes @ %06X\n", bahaviourAndBackgroundBytes);
-
-                        // there are multiple tilesets
-                        // each can hold at max 384 blocks
-                        // TODO: use pixelBuffer to create a list of tiles
-                        byte[] raw = new byte[0x10000];
-                        rom.readBytes(tilesetImage, raw);
-
-                        if (compressed != 0) {
-                            raw = RomReader.decompressLZ10(raw);
+                    // there are multiple tilesets
+                    // each can hold at max 384 blocks
+                    boolean firstUse = localTilesets.add(localTileset);
+                    if (firstUse || log.enabled(DiagnosticLog.Level.TRACE)) {
+                        byte[] raw = readTileset(rom, cache, tilesetImage, compressed != 0, 0x10000);
+
+                        // raw in 32-byte tiles, 32 bytes of 0 == no more tiles
+                        for (int tileIndex = 0; log.enabled(DiagnosticLog.Level.TRACE) && tileIndex + 32 <= raw.length
+                                && !allZero(raw, tileIndex, 32); tileIndex += 32) {
+                            log.record("tile").field("bank", bank).field("map", j).field("tile", tileIndex / 32)
+                                    .bytes("pixels", raw, tileIndex, 32).send();
                         }
 
-                        // raw into 32-byte chunks
-                        List<byte[]> tiles = new ArrayList<>();
-                        for (int tileIndex = 0; tileIndex < raw.length; tileIndex += 32) {
-                            byte[] tile = Arrays.copyOfRange(raw, tileIndex, tileIndex + 32);
-
-                            // 32 bytes of 0 == no more tiles
-                            if (allZero(tile)) break;
-
-                            tiles.add(tile);
-                            System.out.printf("Tile %03X: %s", tileIndex, Arrays.toString(tile));
+                        if (firstUse) {
+                            Palette palettes = cache.readPalettes(rom, colorPalettes, 13, false); // palettes are never compressed
+                            BufferedImage tilesetImg = SpriteBuilder.IndexedImage(SpriteBuilder.CreateIndexedRaster(raw, 16), palettes, 7, false);
+                            SpriteBuilder.WriteImage(tilesetImg, String.format("out/tileset_%06X.png", localTileset));
                         }
+                    }
 
-
-                        int[][][] rgbPalettes = rom.readPalettes(colorPalettes, 13, compressed != 0);
-                        BufferedImage tilesetImg = SpriteBuilder.CreateTilesetImage(raw, rgbPalettes[7], 16);
-                        SpriteBuilder.WriteImage(tilesetImg, "out/tileset.png");
-
-                        // TODO: advance map shows golbal tileset and local tileset merged into 1.
-                        // there is a third tileset at the bottom as well? what is this?
-                        if (blocks != 0) {
-                            BlockInfo[][] mapBlocks = new BlockInfo[mapHeight][mapWidth];
-                            System.out.println("=== Tile Structure ===");
-                            for (int h = 0; h < mapHeight; h++) {
-                                for (int w = 0; w < mapWidth; w++) {
-                                    int tile = h * mapWidth + w;
-                                    int value = rom.read16(tileStructure + tile * 2);
-                                    int attributes = (value >> 10) & 0b111111; // top 6 bits. 0x1=nowalk, 0xC=walk
-                                    int blockIndex = value & 0b1111111111; // bottom 10 bits
-
-                                    // Note: weird subtraction since blocks pointer starts pointing at block 0x280
-                                    // maybe something to do with the local tileset vs global tileset?
-                                    // minus 0x280 since the first 0x280 are in the global
-                                    int blockOffset = blocks + (blockIndex-0x280) * BlockInfo.BYTES;
-                                    byte[] blockBytes = new byte[BlockInfo.BYTES];
-                                    rom.readBytes(blockOffset, blockBytes);
-                                    List<TileInfo> tileInfos = new ArrayList<>();
-                                    for (int t = 0; t < 8; t++) {
-                                        tileInfos.add(new TileInfo(rom.read16(blockOffset + t * 2), null));
-                                    }
-                                    mapBlocks[h][w] = new BlockInfo(tileInfos);
-
-                                    System.out.println(mapBlocks[h][w]);
-                                }
-                                System.out.println();
+                    // the global and local tilesets merged, so block indexes below 0x280 come from the global one
+                    TileAtlas atlas = mapRenderer.atlas(globalTileset, localTileset);
+                    if (tileStructure != 0 && log.enabled(DiagnosticLog.Level.DETAIL)) {
+                        short[] cells = new short[mapWidth * mapHeight];
+                        rom.readShorts(tileStructure, cells);
+                        for (int h = 0; h < mapHeight; h++) {
+                            for (int w = 0; w < mapWidth; w++) {
+                                int value = cells[h * mapWidth + w] & 0xFFFF;
+                                int attributes = (value >> 10) & 0b111111; // top 6 bits. 0x1=nowalk, 0xC=walk
+                                int blockIndex = value & 0b1111111111; // bottom 10 bits
+                                if (blockIndex >= atlas.blockCount) continue;
+
+                                log.record("cell").field("bank", bank).field("map", j).field("x", w).field("y", h)
+                                        .field("block", blockIndex).field("attributes", attributes)
+                                        .field("tiles", atlas.block(blockIndex).toString()).send();
                             }
-
-                            BufferedImage mapImage = SpriteBuilder.CreateMapImage(mapBlocks, rgbPalettes);
-                            SpriteBuilder.WriteImage(mapImage, "out/celadon_dept_0_0.png");
                         }
                     }
                 }
             }
         }
 
-        for (int mm = 0; mm < 10; mm++) {
-            int offset = encounters + mm * 0x50;
-            int bank = rom.read8(offset);
-            int map = rom.read8(offset + 1);
-
-            int grass = rom.read24(offset + 4);
-            int water = rom.read24(offset + 8); // 5 slots
-            int trees = rom.read24(offset + 12); // what is this?
-            int fishing = rom.read24(offset + 16); // 10 slots
-
-            if (grass != 0) {
-                int encounterRate = rom.read8(grass);
-                System.out.printf("Bank %d Map %d Rate=%d\n", bank, map, encounterRate);
-                // todo replace with seeks and reads
-                for (int i = 0; i < 12; i++) {
-                    int minLv = rom.read8(grass + 8 + i * 4);
-                    int maxLv = rom.read8(grass + 9 + i * 4);
-                    int pokemonID = rom.read16(grass + 10 + i * 4);
-                    System.out.printf("Slot %02d: #%03d Lv %d to %d\n", i, pokemonID, minLv, maxLv);
-                }
-            }
+        // every map in the index, one task per map
+        int rendered = mapRenderer.renderAll(mapIndex, Path.of("out/maps"), Runtime.getRuntime().availableProcessors());
+        System.out.printf("Rendered %d maps\n", rendered);
 
-            // rate uint32, ptr, ten slots
-            if (water != 0) {
-                System.out.printf("Water @ %06X\n", water);
-            }
-
-            if (trees != 0) {
-                System.out.printf("Trees @ %06X\n", trees);
-            }
+        // https://bulbapedia.bulbagarden.net/wiki/List_of_locations_by_index_number_in_Generation_III
+        final StringPool mapNames = rom.readStringTable(tables.mapNames(), 109);
+        for (int i = 0; log.enabled(DiagnosticLog.Level.DETAIL) && i < mapNames.count(); i++) {
+            log.record("mapName").field("index", i).field("name", mapNames.get(i)).send();
+        }
 
-            // rate uint32, ptr, ten slots
-            if (fishing != 0) {
-                System.out.printf("Fishing @ %06X\n", fishing);
+        // every header up to the 0xFF 0xFF terminator, all four habitats
+        EncounterTable encounterTable = EncounterTable.build(rom, encounters, mapIndex);
+        for (int h = 0; log.enabled(DiagnosticLog.Level.SUMMARY) && h < encounterTable.headers(); h++) {
+            int name = encounterTable.mapName(h, mapIndex);
+            for (EncounterTable.Habitat habitat : EncounterTable.Habitat.values()) {
+                if (!encounterTable.has(h, habitat)) continue;
+                log.record("encounters").field("bank", encounterTable.bank(h)).field("map", encounterTable.mapNumber(h))
+                        .field("name", name >= 0 && name < mapNames.count() ? mapNames.get(name) : null)
+                        .field("habitat", habitat.name()).field("rate", encounterTable.rate(h, habitat)).send();
+                int first = encounterTable.firstSlot(h, habitat);
+                for (int i = 0; log.enabled(DiagnosticLog.Level.DETAIL) && i < habitat.slots; i++) {
+                    int slot = first + i;
+                    log.record("slot").field("bank", encounterTable.bank(h)).field("map", encounterTable.mapNumber(h))
+                            .field("habitat", habitat.name()).field("slot", i).field("species", encounterTable.species(slot))
+                            .field("minLevel", encounterTable.minLevel(slot)).field("maxLevel", encounterTable.maxLevel(slot))
+                            .send();
+                }
             }
         }
 
         //Footprint = 0x105e14
-        final int[] palettes = {
-                rom.read24(0x130), // Normal
-                rom.read24(0x134), // Shiny
-        };
-
-        byte[] pixelBuffer = new byte[0x900]; // TODO: what is the least bytes needed to decompress this?
-        byte[] colorBuffer = new byte[0x28]; // TODO: ^^
+        final int NUM_POKEMON = BatchExtractor.NUM_POKEMON;
 
-        final int NUM_POKEMON = 250;
+        final StringPool typeNames = rom.readStrings(tables.typeNames(), 7, 18);
+        final StringPool speciesNames = rom.readStrings(names, 11, NUM_POKEMON + 1);
 
-        // https://bulbapedia.bulbagarden.net/wiki/List_of_locations_by_index_number_in_Generation_III
-        final int maps = rom.read24(0xc0ca8);
-        for (int i = 0; i < 109; i++) {
-            int offset = maps + i * 4;
-            int mapNameLocation = rom.read24(offset);
-            String mapName = rom.readString(mapNameLocation);
-            //System.out.printf("%03d: %s\n", i, mapName);
+        // front/back x normal/shiny for every species, decoded and rendered across all cores
+        SpriteExtractor.Sprites sprites;
+        try (SpriteExtractor extractor = new SpriteExtractor(rom, cache)) {
+            sprites = extractor.extract(NUM_POKEMON, 5);
         }
-
-        final int types = rom.read24(0x309dc);
-        for (int i = 0; i < 18; i++) {
-            String typeString = rom.readString(types + i * 7);
+        if (sprites.failed() > 0) {
+            System.out.printf("%d species left with blank sprite cells\n", sprites.failed());
         }
 
-        // Loop over original 151 Pokemon
+        final SpeciesTable species = SpeciesTable.build(rom, pokemonSpecies, NUM_POKEMON + 1);
+
+        int badSprites = 0;
         for (int pid = 1; pid <= NUM_POKEMON; pid++) {
-            final int frontSprite = rom.read24(frontSprites + 8 * pid);
-            final int speciesOffset = pokemonSpecies + 28 * pid;
-            final int nameOffset = names + 11 * pid;
-            String name = rom.readString(nameOffset);
-
-            final int type1 = rom.read8(speciesOffset + 6);
-            final int type2 = rom.read8(speciesOffset + 7);
-            // TODO: if type2 == type1 then set it to null, this is a single type pokemon
-            final int gender = rom.read8(speciesOffset + 16); // 0=male, 254=female, 255=unknown, 1-253=mixed
+            byte[] pixels = sprites.frontPixels(pid);
+            if (pixels == null) {
+                badSprites++;
+            }
+            if (!log.enabled(DiagnosticLog.Level.SUMMARY)) continue;
+
+            final int type1 = species.type1(pid);
+            final int type2 = species.type2(pid);
             // this value is compared to the lowest byte of a Pokémon's personality value to determine its gender.
+            final int gender = species.gender(pid);
+            DiagnosticLog.Record record = log.record("species").field("id", pid).field("name", speciesNames.get(pid))
+                    .field("type1", type1 < typeNames.count() ? typeNames.get(type1) : null)
+                    .field("type2", type2 != type1 && type2 < typeNames.count() ? typeNames.get(type2) : null)
+                    .field("gender", gender)
+                    .field("frontSprite", pixels != null);
+            if (pixels != null) {
+                int[] colorCounts = new int[16];
+                for (byte pixel: pixels) {
+                    int lo = pixel & 0xF;
+                    int hi = (pixel >>> 4) & 0x0F;
+                    colorCounts[lo]++;
+                    colorCounts[hi]++;
+                }
+                record.field("colorCounts", colorCounts);
+            }
+            record.send();
+        }
+        if (badSprites > 0) {
+            System.out.printf("%d species without a valid front sprite\n", badSprites);
+        }
+        SpriteBuilder.WriteImage(sprites.sheet.toImage(), "out/sprites.png");
+        System.out.println("Asset cache: " + cache);
+        System.out.println("Text: " + rom.text());
+
+        if (exportUrl != null) {
+            try (PostgresExporter exporter = new PostgresExporter(exportUrl, cache)) {
+                exporter.createSchema();
+                System.out.print(exporter.export(Path.of(args[0]).getFileName().toString(), rom, mapIndex, NUM_POKEMON));
+            }
+        }
+    }
 
-            // HP AT DF SP SA SD T1 T2 CR XP EY--- IT1-- IT2-- SX EC BF LU E1 E2 A1 A2 SZ CF PADDING
-            // 2D 31 31 2D 41 41 0C 03 2D 40 00 01 00 00 00 00 1F 14 46 03 01 07 41 00 00 03 00 00
+    // The value after name in args, or null.
+    private static String option(String[] args, String name) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) return args[i + 1];
+        }
+        return null;
+    }
 
-            rom.readBytes(frontSprite, pixelBuffer);
-            byte[] pixels = RomReader.decompressLZ10(pixelBuffer);
+    // --batch [--threads N] [--open N] [--out DIR] [--export JDBC-URL] <rom or directory>...
+    private static int batch(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path out = Path.of("out");
+        int open = BatchExtractor.DEFAULT_OPEN;
+        String exportUrl = null;
+        List<String> inputs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--open": open = Integer.parseInt(args[++i]); break;
+                case "--out": out = Path.of(args[++i]); break;
+                case "--export": exportUrl = args[++i]; break;
+                default: inputs.add(args[i]);
+            }
+        }
+        return new BatchExtractor(out, threads, exportUrl, open).run(BatchExtractor.findRoms(inputs));
+    }
 
-            int[] colorCounts = new int[16];
-            for (byte pixel: pixels) {
-                int lo = pixel & 0xF;
-                int hi = (pixel >>> 4) & 0x0F;
-                colorCounts[lo]++;
-                colorCounts[hi]++;
+    // --tables <rom>...
+    // Prints where each ROM keeps the tables it is read from, and whether a site matched or the scan found it.
+    private static void tables(String[] args) throws Exception {
+        for (int i = 1; i < args.length; i++) {
+            try (RomReader rom = new RomReader(Path.of(args[i]))) {
+                long start = System.nanoTime();
+                PointerIndex index = PointerIndex.build(rom);
+                long scanned = System.nanoTime();
+                RomTables tables = RomTables.locate(rom, index);
+                System.out.printf("%s: %s, scanned in %.1f ms, located in %.1f ms\n", args[i], index,
+                        (scanned - start) / 1e6, (System.nanoTime() - scanned) / 1e6);
+                System.out.print(tables);
             }
+        }
+    }
 
-            for (int p = 0; p < palettes.length; p++) {
-                int pokemonId = (p == 0) ? pid : -pid;
-                int pokemon = rom.read24(palettes[p] + 8 * pid);
+    // --update DIR <base rom> <patch.ips | patch.ups | new rom>
+    // DIR is one ROM's directory from --batch (or an earlier --update), it is rewritten to match the new ROM.
+    private static void update(String[] args) throws Exception {
+        Path dir = Path.of(args[1]);
+        Path input = Path.of(args[3]);
+        try (RomReader base = new RomReader(Path.of(args[2]), RomStorage.HEAP)) {
+            RomReader target;
+            ByteRanges changed;
+            if (RomPatch.isPatch(input)) {
+                RomPatch patch = RomPatch.apply(base, input);
+                target = new RomReader(input.toAbsolutePath().normalize() + "+" + base.id(), patch.image);
+                changed = patch.changed;
+            } else {
+                target = new RomReader(input, RomStorage.HEAP);
+                changed = RomPatch.diff(base, target);
+            }
+            try (RomReader rom = target) {
+                AssetCache cache = new AssetCache(64 << 20, false);
+                System.out.print(new IncrementalExtractor(dir, cache, Runtime.getRuntime().availableProcessors())
+                        .update(base, rom, changed));
+            }
+        }
+        System.out.print(Metrics.summary());
+    }
 
-                int[][] rgb = rom.readPalettes(pokemon, 1, true)[0];
+    private static byte[] readTileset(RomReader rom, AssetCache cache, int offset, boolean compressed, int uncompressedSize) {
+        if (!compressed) {
+            byte[] raw = new byte[uncompressedSize];
+            rom.readBytes(offset, raw);
+            return raw;
+        }
 
-                SpriteBuilder.CreateSprite(pokemonId, pixels, rgb);
-            }
+        byte[] raw = cache.decompressLZ10(rom, offset);
+        if (raw == null) {
+            throw new IllegalArgumentException(String.format("Bad compressed tileset @ %06X", offset));
         }
-        //SpriteBuilder.WriteSheet();
+        return raw;
     }
 
-    private static boolean allZero(byte[] data) {
-        for (byte b : data) {
-            if (b != 0) return false;
+    private static boolean allZero(byte[] data, int from, int length) {
+        for (int i = from; i < from + length; i++) {
+            if (data[i] != 0) return false;
         }
         return true;
     }
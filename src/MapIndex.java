@@ -0,0 +1,275 @@
+// Every map header in the ROM, read in one pass over the master bank table and kept in primitive arrays.
+// Maps are numbered 0..count()-1 in bank order and index(bank, map) finds one in O(1), so nothing is
+// read from the ROM again after build(). Pointers are stored as ROM offsets, 0 meaning null.
+//
+// The master table is a list of bank pointers ended by 0x77777777. Each bank is a list of map header
+// pointers; the ROM has no count for them, so a bank runs until the next bank (or the master table)
+// starts or until something that is not a ROM pointer.
+// https://datacrystal.tcrf.net/wiki/Pok%C3%A9mon_3rd_Generation
+public class MapIndex {
+    static final int SENTINEL = 0x77777777;
+    static final int HEADER_BYTES = 28;
+    static final int LAYOUT_BYTES = 28;
+    private static final int MAX_BANKS = 256;
+    private static final int MAX_MAPS_PER_BANK = 256;
+
+    private final int[] bankStart; // maps of bank b are [bankStart[b], bankStart[b + 1])
+    private final byte[] bankOf;
+    private final byte[] mapNumber;
+
+    // map header
+    private final int[] header;
+    private final int[] mapData;
+    private final int[] events;
+    private final int[] scripts;
+    private final int[] connections;
+    private final short[] music;
+    private final short[] layoutId;
+    private final byte[] label;
+    private final byte[] visibility;
+    private final byte[] weather;
+    private final byte[] mapType;
+    private final byte[] showLabel;
+    private final byte[] battleType;
+
+    // map data (layout), zero when mapData is null
+    private final int[] width;
+    private final int[] height;
+    private final int[] border;
+    private final int[] tileStructure;
+    private final int[] primaryTileset;
+    private final int[] secondaryTileset;
+    private final byte[] borderWidth;
+    private final byte[] borderHeight;
+
+    private MapIndex(int[] bankStart) {
+        int n = bankStart[bankStart.length - 1];
+        this.bankStart = bankStart;
+        this.bankOf = new byte[n];
+        this.mapNumber = new byte[n];
+        this.header = new int[n];
+        this.mapData = new int[n];
+        this.events = new int[n];
+        this.scripts = new int[n];
+        this.connections = new int[n];
+        this.music = new short[n];
+        this.layoutId = new short[n];
+        this.label = new byte[n];
+        this.visibility = new byte[n];
+        this.weather = new byte[n];
+        this.mapType = new byte[n];
+        this.showLabel = new byte[n];
+        this.battleType = new byte[n];
+        this.width = new int[n];
+        this.height = new int[n];
+        this.border = new int[n];
+        this.tileStructure = new int[n];
+        this.primaryTileset = new int[n];
+        this.secondaryTileset = new int[n];
+        this.borderWidth = new byte[n];
+        this.borderHeight = new byte[n];
+    }
+
+    // masterTable is the offset of the bank pointer list, e.g. rom.tables().mapBanks()
+    public static MapIndex build(RomReader rom, int masterTable) {
+        int[] banks = new int[MAX_BANKS];
+        int numBanks = 0;
+        RomCursor master = rom.cursor(masterTable);
+        while (numBanks < MAX_BANKS) {
+            int value = master.read32();
+            if (value == SENTINEL || !rom.isRomPointer(value)) break;
+            banks[numBanks++] = RomReader.toOffset(value);
+        }
+
+        int[] bankStart = new int[numBanks + 1];
+        for (int b = 0; b < numBanks; b++) {
+            bankStart[b + 1] = bankStart[b] + countMaps(rom, banks, numBanks, b, masterTable);
+        }
+
+        MapIndex index = new MapIndex(bankStart);
+        for (int b = 0; b < numBanks; b++) {
+            RomCursor bank = rom.cursor(banks[b]);
+            for (int m = bankStart[b]; m < bankStart[b + 1]; m++) {
+                index.bankOf[m] = (byte) b;
+                index.mapNumber[m] = (byte) (m - bankStart[b]);
+                index.readHeader(rom, m, RomReader.toOffset(bank.read32()));
+            }
+        }
+        return index;
+    }
+
+    private static int countMaps(RomReader rom, int[] banks, int numBanks, int b, int masterTable) {
+        int start = banks[b];
+        int end = masterTable > start ? masterTable : Integer.MAX_VALUE;
+        for (int i = 0; i < numBanks; i++) {
+            if (banks[i] > start && banks[i] < end) {
+                end = banks[i];
+            }
+        }
+
+        int count = 0;
+        while (count < MAX_MAPS_PER_BANK && start + count * 4 + 4 <= end
+                && rom.isRomPointer(rom.read32(start + count * 4))) {
+            count++;
+        }
+        return count;
+    }
+
+    private void readHeader(RomReader rom, int m, int offset) {
+        RomCursor c = rom.cursor(offset);
+        header[m] = offset;
+        mapData[m] = pointer(rom, c.read32());
+        events[m] = pointer(rom, c.read32());
+        scripts[m] = pointer(rom, c.read32());
+        connections[m] = pointer(rom, c.read32());
+        music[m] = (short) c.read16();
+        layoutId[m] = (short) c.read16();
+        label[m] = (byte) c.read8();
+        visibility[m] = (byte) c.read8();
+        weather[m] = (byte) c.read8();
+        mapType[m] = (byte) c.read8();
+        c.skip(2); // bike/escape-rope flags and floor number
+        showLabel[m] = (byte) c.read8();
+        battleType[m] = (byte) c.read8();
+
+        if (mapData[m] != 0) {
+            c.seek(mapData[m]);
+            width[m] = c.read32();
+            height[m] = c.read32();
+            border[m] = pointer(rom, c.read32());
+            tileStructure[m] = pointer(rom, c.read32());
+            primaryTileset[m] = pointer(rom, c.read32());
+            secondaryTileset[m] = pointer(rom, c.read32());
+            borderWidth[m] = (byte) c.read8();
+            borderHeight[m] = (byte) c.read8();
+        }
+    }
+
+    // What build read for map m: its bank's master table entry, its entry in the bank, header and layout.
+    void ranges(RomReader rom, int masterTable, int m, ByteRanges.Builder out) {
+        int bankEntry = masterTable + 4 * bank(m);
+        out.add(bankEntry, bankEntry + 4);
+        int mapEntry = RomReader.toOffset(rom.read32(bankEntry)) + 4 * mapNumber(m);
+        out.add(mapEntry, mapEntry + 4);
+        out.add(header[m], header[m] + HEADER_BYTES);
+        if (mapData[m] != 0) {
+            out.add(mapData[m], mapData[m] + LAYOUT_BYTES);
+        }
+    }
+
+    private static int pointer(RomReader rom, int value) {
+        return rom.isRomPointer(value) ? RomReader.toOffset(value) : 0;
+    }
+
+    public int count() {
+        return header.length;
+    }
+
+    public int banks() {
+        return bankStart.length - 1;
+    }
+
+    public int mapsInBank(int bank) {
+        return bankStart[bank + 1] - bankStart[bank];
+    }
+
+    // Map number for (bank, map), or -1 if there is no such map.
+    public int index(int bank, int map) {
+        if (bank < 0 || bank >= banks() || map < 0 || map >= mapsInBank(bank)) {
+            return -1;
+        }
+        return bankStart[bank] + map;
+    }
+
+    public int bank(int m) {
+        return bankOf[m] & 0xFF;
+    }
+
+    public int mapNumber(int m) {
+        return mapNumber[m] & 0xFF;
+    }
+
+    public int header(int m) {
+        return header[m];
+    }
+
+    public int mapData(int m) {
+        return mapData[m];
+    }
+
+    public int events(int m) {
+        return events[m];
+    }
+
+    public int scripts(int m) {
+        return scripts[m];
+    }
+
+    public int connections(int m) {
+        return connections[m];
+    }
+
+    public int music(int m) {
+        return music[m] & 0xFFFF;
+    }
+
+    public int layoutId(int m) {
+        return layoutId[m] & 0xFFFF;
+    }
+
+    public int label(int m) {
+        return label[m] & 0xFF;
+    }
+
+    public int visibility(int m) {
+        return visibility[m] & 0xFF;
+    }
+
+    public int weather(int m) {
+        return weather[m] & 0xFF;
+    }
+
+    public int mapType(int m) {
+        return mapType[m] & 0xFF;
+    }
+
+    public int showLabel(int m) {
+        return showLabel[m] & 0xFF;
+    }
+
+    public int battleType(int m) {
+        return battleType[m] & 0xFF;
+    }
+
+    public int width(int m) {
+        return width[m];
+    }
+
+    public int height(int m) {
+        return height[m];
+    }
+
+    public int border(int m) {
+        return border[m];
+    }
+
+    public int tileStructure(int m) {
+        return tileStructure[m];
+    }
+
+    public int primaryTileset(int m) {
+        return primaryTileset[m];
+    }
+
+    public int secondaryTileset(int m) {
+        return secondaryTileset[m];
+    }
+
+    public int borderWidth(int m) {
+        return borderWidth[m] & 0xFF;
+    }
+
+    public int borderHeight(int m) {
+        return borderHeight[m] & 0xFF;
+    }
+}
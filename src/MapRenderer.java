@@ -0,0 +1,99 @@
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Renders maps from a MapIndex: bottom layer opaque, top layer over it with colour 0 transparent.
+// Maps sharing a tileset pair share one BlockAtlas, built by whichever task needs it first, and are drawn
+// by copying its pre-rendered block rows.
+public class MapRenderer {
+    private final RomReader rom;
+    private final AssetCache cache;
+    private final ConcurrentHashMap<Long, BlockAtlas> atlases = new ConcurrentHashMap<>();
+
+    public MapRenderer(RomReader rom, AssetCache cache) {
+        this.rom = rom;
+        this.cache = cache;
+    }
+
+    TileAtlas atlas(int primary, int secondary) {
+        return blockAtlas(primary, secondary).tiles;
+    }
+
+    BlockAtlas blockAtlas(int primary, int secondary) {
+        long key = ((long) primary << 32) | (secondary & 0xFFFFFFFFL);
+        return atlases.computeIfAbsent(key, k -> new BlockAtlas(TileAtlas.load(rom, cache, primary, secondary)));
+    }
+
+    // Whether map m has a layout that can be drawn at all.
+    static boolean renderable(MapIndex index, int m) {
+        return index.mapData(m) != 0 && index.tileStructure(m) != 0 && index.primaryTileset(m) != 0
+                && index.width(m) > 0 && index.height(m) > 0
+                && index.width(m) <= 0x400 && index.height(m) <= 0x400;
+    }
+
+    // Hex SHA-256 of everything render(index, m) depends on, for ContentStore.
+    String digest(MapIndex index, int m) {
+        int width = index.width(m);
+        int height = index.height(m);
+        short[] cells = new short[width * height];
+        rom.readShorts(index.tileStructure(m), cells);
+
+        MessageDigest md = ContentStore.sha256();
+        md.update(blockAtlas(index.primaryTileset(m), index.secondaryTileset(m)).tiles.digest);
+        ContentStore.update(md, new int[] { width, height });
+        ContentStore.update(md, cells);
+        return ContentStore.hex(md.digest());
+    }
+
+    // Every ROM byte render(index, m) depends on, from the master table entry that leads to the map on.
+    static void ranges(RomReader rom, MapIndex index, int masterTable, int m, ByteRanges.Builder out) {
+        index.ranges(rom, masterTable, m, out);
+        if (!renderable(index, m)) return;
+        out.add(index.tileStructure(m), index.tileStructure(m) + index.width(m) * index.height(m) * 2);
+        TileAtlas.ranges(rom, index.primaryTileset(m), index.secondaryTileset(m), out);
+    }
+
+    BufferedImage render(MapIndex index, int m) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.MAP_RENDER);
+        int width = index.width(m);
+        int height = index.height(m);
+        BlockAtlas atlas = blockAtlas(index.primaryTileset(m), index.secondaryTileset(m));
+
+        short[] cells = new short[width * height];
+        rom.readShorts(index.tileStructure(m), cells);
+
+        BufferedImage img = new BufferedImage(width * BlockAtlas.BLOCK_SIZE, height * BlockAtlas.BLOCK_SIZE,
+                BufferedImage.TYPE_INT_ARGB);
+        atlas.drawMap(cells, width, height, TileDecoder.pixels(img));
+        span.finish((long) img.getWidth() * img.getHeight() * Integer.BYTES);
+        return img;
+    }
+
+    // One task per map, written to outDir/map_<bank>_<map>.png. Returns the number of maps written.
+    public int renderAll(MapIndex index, Path outDir, int threads) throws Exception {
+        Files.createDirectories(outDir);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int m = 0; m < index.count(); m++) {
+                if (!renderable(index, m)) continue;
+                final int map = m;
+                tasks.add(pool.submit(() -> {
+                    String name = String.format("map_%02d_%02d.png", index.bank(map), index.mapNumber(map));
+                    SpriteBuilder.WriteImage(render(index, map), outDir.resolve(name).toString());
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            return tasks.size();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Process-wide counters and per-stage latency histograms for the extraction pipeline, always on.
+// Recording is a few LongAdder adds and one AtomicLongArray increment, so it stays out of the profile;
+// each stage is also a JFR event (pokemonxtract.Stage), which costs nothing unless a recording has it
+// enabled: java -XX:StartFlightRecording=filename=run.jfr ... then jfr print --events pokemonxtract.Stage
+//
+//   Metrics.Span span = Metrics.start(Metrics.Stage.DECOMPRESS);
+//   ...
+//   span.finish(bytes);
+final class Metrics {
+    enum Stage {
+        DECOMPRESS, PALETTE, TILESET, MAP_RENDER, SPRITE_DECODE, SPRITE_RENDER, PNG_WRITE, TEXT, EXPORT, POINTER_SCAN
+    }
+
+    enum Counter {
+        BYTES_READ, COMPRESSED_BYTES, DECOMPRESSED_BYTES, TILES_DECODED, CACHE_HITS, CACHE_MISSES, PNG_BYTES
+    }
+
+    // bucket b holds latencies in [2^b, 2^(b+1)) ns
+    private static final int BUCKETS = 64;
+    private static final Stage[] STAGES = Stage.values();
+    private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+    private static final LongAdder[] CALLS = new LongAdder[STAGES.length];
+    private static final LongAdder[] NANOS = new LongAdder[STAGES.length];
+    private static final LongAdder[] BYTES = new LongAdder[STAGES.length];
+    private static final LongAccumulator[] MAX = new LongAccumulator[STAGES.length];
+    private static final AtomicLongArray HISTOGRAMS = new AtomicLongArray(STAGES.length * BUCKETS);
+
+    static {
+        for (int i = 0; i < COUNTERS.length; i++) {
+            COUNTERS[i] = new LongAdder();
+        }
+        for (int i = 0; i < STAGES.length; i++) {
+            CALLS[i] = new LongAdder();
+            NANOS[i] = new LongAdder();
+            BYTES[i] = new LongAdder();
+            MAX[i] = new LongAccumulator(Math::max, 0);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    @Name("pokemonxtract.Stage")
+    @Label("Extraction Stage")
+    @Description("One run of a pipeline stage, e.g. a decompression or a PNG write")
+    @Category("Pokemon Xtract")
+    @StackTrace(false)
+    static final class Span extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        private transient Stage which;
+        private transient long startNanos;
+
+        // Ends the span, bytes being whatever the stage produced or consumed (0 if nothing sensible).
+        void finish(long bytes) {
+            long nanos = System.nanoTime() - startNanos;
+            record(which, nanos, bytes);
+            end();
+            if (shouldCommit()) {
+                this.stage = which.name();
+                this.bytes = bytes;
+                commit();
+            }
+        }
+    }
+
+    static Span start(Stage stage) {
+        Span span = new Span();
+        span.which = stage;
+        span.begin();
+        span.startNanos = System.nanoTime();
+        return span;
+    }
+
+    static void add(Counter counter, long n) {
+        COUNTERS[counter.ordinal()].add(n);
+    }
+
+    private static void record(Stage stage, long nanos, long bytes) {
+        int s = stage.ordinal();
+        CALLS[s].increment();
+        NANOS[s].add(nanos);
+        BYTES[s].add(bytes);
+        MAX[s].accumulate(nanos);
+        HISTOGRAMS.incrementAndGet(s * BUCKETS + 63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+    }
+
+    static long count(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    static long calls(Stage stage) {
+        return CALLS[stage.ordinal()].sum();
+    }
+
+    // Upper bound of the bucket holding the q-th quantile of the stage's latencies, in ns.
+    static long quantile(Stage stage, double q) {
+        long total = calls(stage);
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += HISTOGRAMS.get(stage.ordinal() * BUCKETS + b);
+            if (seen >= rank) return b >= 62 ? Long.MAX_VALUE : (2L << b) - 1;
+        }
+        return MAX[stage.ordinal()].get();
+    }
+
+    // The end-of-run table: one row per stage that ran, then the counters.
+    static String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-14s %9s %11s %10s %10s %10s %10s %12s%n",
+                "stage", "calls", "total ms", "mean us", "p50 us", "p99 us", "max us", "bytes"));
+        for (Stage stage : STAGES) {
+            int s = stage.ordinal();
+            long calls = CALLS[s].sum();
+            if (calls == 0) continue;
+            long nanos = NANOS[s].sum();
+            sb.append(String.format("%-14s %9d %11.1f %10.1f %10s %10s %10.1f %12d%n", stage, calls, nanos / 1e6,
+                    nanos / 1e3 / calls, bound(quantile(stage, 0.5)), bound(quantile(stage, 0.99)),
+                    MAX[s].get() / 1e3, BYTES[s].sum()));
+        }
+        for (Counter counter : Counter.values()) {
+            sb.append(String.format("%-20s %14d%n", counter.name().toLowerCase(), count(counter)));
+        }
+        return sb.toString();
+    }
+
+    // histogram buckets are powers of two, so quantiles are shown as "< bound"
+    private static String bound(long nanos) {
+        return nanos == Long.MAX_VALUE ? "-" : String.format("<%.0f", Math.ceil(nanos / 1e3));
+    }
+}
@@ -0,0 +1,86 @@
+// count GBA palettes of 16 colours kept flat: the raw BGR555 words plus one packed ARGB lookup built
+// in the chosen format. Palette p is argb()[offset(p), offset(p) + 16), no per-palette arrays.
+// BGR555 is not a displayable colour, so a BGR555 palette's lookup is RGB888; its raw words are bgr555().
+public class Palette {
+    static final int COLORS = 16;
+    static final int BYTES = COLORS * 2;
+
+    public enum Format {
+        // the raw 15-bit colour, 0bbbbbgggggrrrrr
+        BGR555,
+        // 8 * x per channel, 0-248, what this project has always produced
+        RGB888,
+        // x * 255 / 31 per channel (x << 3 | x >> 2), so white is 255 not 248
+        RGB888_SCALED
+    }
+
+    final int count;
+    final Format format;
+    private final short[] bgr555;
+    private final int[] argb;
+
+    private Palette(short[] bgr555, Format format) {
+        this.count = bgr555.length / COLORS;
+        this.format = format;
+        this.bgr555 = bgr555;
+        this.argb = new int[bgr555.length];
+        Format lut = format == Format.BGR555 ? Format.RGB888 : format;
+        for (int i = 0; i < bgr555.length; i++) {
+            this.argb[i] = 0xFF000000 | convert(bgr555[i], lut);
+        }
+    }
+
+    // count palettes of little-endian BGR555 from raw, 32 bytes each
+    static Palette decode(byte[] raw, int count, Format format) {
+        short[] colors = new short[count * COLORS];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = (short) ((raw[2 * i] & 0xFF) | ((raw[2 * i + 1] & 0xFF) << 8));
+        }
+        return new Palette(colors, format);
+    }
+
+    static int convert(int color, Format format) {
+        int red = color & 0x1F;
+        int green = (color >>> 5) & 0x1F;
+        int blue = (color >>> 10) & 0x1F;
+
+        switch (format) {
+            case BGR555:
+                return color & 0x7FFF;
+            case RGB888:
+                return (8 * red << 16) | (8 * green << 8) | 8 * blue;
+            case RGB888_SCALED:
+                return (scale(red) << 16) | (scale(green) << 8) | scale(blue);
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    private static int scale(int x) {
+        return (x << 3) | (x >>> 2);
+    }
+
+    // Start of palette p in argb() and bgr555().
+    int offset(int palette) {
+        return palette * COLORS;
+    }
+
+    // Shared, do not modify.
+    int[] argb() {
+        return argb;
+    }
+
+    // Shared, do not modify.
+    short[] bgr555() {
+        return bgr555;
+    }
+
+    int argb(int palette, int index) {
+        return argb[palette * COLORS + index];
+    }
+
+    // The colour in any format, independent of the one the lookup was built with.
+    int color(int palette, int index, Format format) {
+        return convert(bgr555[palette * COLORS + index] & 0xFFFF, format);
+    }
+}
@@ -0,0 +1,399 @@
+import java.awt.image.*;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// PNG encoder for our rasters. Images of at most 256 distinct colours (every tileset, most maps) are
+// written as palette PNGs at 1, 2, 4 or 8 bits per pixel, already-indexed images keep their own
+// palette, anything else is RGB(A).
+//
+// The zlib stream is cut into row ranges that are filtered and deflated in parallel, pigz-style: each
+// range is primed with the previous 32 KB of scanlines as its dictionary and ends with a sync flush, so
+// the pieces concatenate into one stream compressing nearly as well as a serial one, and the Adler-32s
+// of the pieces are combined rather than recomputed. Ranges are written as IDAT chunks in order as they
+// finish, with only a few in flight, so the whole encoded file is never held in memory.
+final class PngWriter {
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_INDEXED = 3;
+    private static final int COLOR_RGBA = 6;
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int LEVEL = Deflater.DEFAULT_COMPRESSION;
+    private static final int WINDOW = 32 << 10;
+    // filtered bytes per deflate job
+    static final int CHUNK_BYTES = 256 << 10;
+    private static final int MAX_PALETTE = 256;
+
+    private PngWriter() {
+    }
+
+    static void write(BufferedImage img, Path out) throws IOException {
+        Scanlines lines = indexed(img);
+        if (lines == null) {
+            int w = img.getWidth();
+            int h = img.getHeight();
+            boolean direct = img.getType() == BufferedImage.TYPE_INT_ARGB
+                    && ((DataBufferInt) img.getRaster().getDataBuffer()).getData().length == w * h;
+            int[] argb = direct ? TileDecoder.pixels(img) : img.getRGB(0, 0, w, h, null, 0, w);
+            lines = argb(argb, w, h);
+        }
+        write(lines, out);
+    }
+
+    // argb holds width * height pixels, row by row
+    static void write(int[] argb, int width, int height, Path out) throws IOException {
+        write(argb(argb, width, height), out);
+    }
+
+    // Rows of packed indices, rowBytes apart, leftmost pixel in the high bits as PNG wants them.
+    static void writeIndexed(byte[] packed, int rowBytes, int bitDepth, int width, int height, int[] palette, Path out)
+            throws IOException {
+        write(new Packed(packed, 0, rowBytes, bitDepth, width, height, palette), out);
+    }
+
+    // An image with an IndexColorModel over a packed or one-byte-per-pixel raster, or null.
+    private static Scanlines indexed(BufferedImage img) {
+        if (!(img.getColorModel() instanceof IndexColorModel) || !(img.getRaster().getDataBuffer() instanceof DataBufferByte)) {
+            return null;
+        }
+        IndexColorModel cm = (IndexColorModel) img.getColorModel();
+        int[] palette = new int[cm.getMapSize()];
+        cm.getRGBs(palette);
+        SampleModel sm = img.getRaster().getSampleModel();
+        byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+        if (img.getRaster().getSampleModelTranslateX() != 0 || img.getRaster().getSampleModelTranslateY() != 0) {
+            return null;
+        }
+        if (sm instanceof MultiPixelPackedSampleModel) {
+            MultiPixelPackedSampleModel mp = (MultiPixelPackedSampleModel) sm;
+            if (mp.getDataBitOffset() != 0) return null;
+            return new Packed(data, 0, mp.getScanlineStride(), mp.getPixelBitStride(), img.getWidth(), img.getHeight(), palette);
+        }
+        if (sm instanceof PixelInterleavedSampleModel && sm.getNumBands() == 1
+                && ((PixelInterleavedSampleModel) sm).getPixelStride() == 1) {
+            PixelInterleavedSampleModel pi = (PixelInterleavedSampleModel) sm;
+            return new Packed(data, pi.getBandOffsets()[0], pi.getScanlineStride(), 8, img.getWidth(), img.getHeight(), palette);
+        }
+        return null;
+    }
+
+    // Palette PNG when the pixels have few enough colours, RGB when all are opaque, otherwise RGBA.
+    private static Scanlines argb(int[] argb, int width, int height) {
+        int n = width * height;
+        byte[] indices = new byte[n];
+        int[] palette = new int[MAX_PALETTE];
+        int colors = 0;
+        // open addressing, colour -> index + 1
+        int[] keys = new int[MAX_PALETTE * 2];
+        int[] values = new int[MAX_PALETTE * 2];
+        int last = 0;
+        int lastIndex = -1;
+        for (int i = 0; i < n; i++) {
+            int c = argb[i];
+            if (c != last || lastIndex < 0) {
+                int slot = (c * 0x9E3779B9 >>> 23) & (keys.length - 1);
+                while (values[slot] != 0 && keys[slot] != c) {
+                    slot = (slot + 1) & (keys.length - 1);
+                }
+                if (values[slot] == 0) {
+                    if (colors == MAX_PALETTE) {
+                        return new Truecolor(argb, width, height, anyTransparent(argb) ? COLOR_RGBA : COLOR_RGB);
+                    }
+                    palette[colors] = c;
+                    keys[slot] = c;
+                    values[slot] = ++colors;
+                }
+                last = c;
+                lastIndex = values[slot] - 1;
+            }
+            indices[i] = (byte) lastIndex;
+        }
+
+        palette = Arrays.copyOf(palette, colors);
+        int depth = colors <= 2 ? 1 : colors <= 4 ? 2 : colors <= 16 ? 4 : 8;
+        if (depth == 8) {
+            return new Packed(indices, 0, width, 8, width, height, palette);
+        }
+        int perByte = 8 / depth;
+        int rowBytes = (width + perByte - 1) / perByte;
+        byte[] packed = new byte[rowBytes * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int shift = 8 - depth * (x % perByte + 1);
+                packed[y * rowBytes + x / perByte] |= (byte) (indices[y * width + x] << shift);
+            }
+        }
+        return new Packed(packed, 0, rowBytes, depth, width, height, palette);
+    }
+
+    private static boolean anyTransparent(int[] argb) {
+        for (int c : argb) {
+            if ((c >>> 24) != 0xFF) return true;
+        }
+        return false;
+    }
+
+    // Source of filtered scanlines, each 1 filter byte + lineBytes() - 1 data bytes.
+    private abstract static class Scanlines {
+        final int width;
+        final int height;
+
+        Scanlines(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        abstract int bitDepth();
+
+        abstract int colorType();
+
+        abstract int lineBytes();
+
+        // filtered row y into out at offset
+        abstract void line(int y, byte[] out, int offset);
+
+        // PLTE and tRNS, none for truecolour
+        void writePalette(DataOutputStream out) throws IOException {
+        }
+    }
+
+    private static final class Packed extends Scanlines {
+        private final byte[] data;
+        private final int offset;
+        private final int stride;
+        private final int depth;
+        private final int[] palette;
+
+        Packed(byte[] data, int offset, int stride, int depth, int width, int height, int[] palette) {
+            super(width, height);
+            this.data = data;
+            this.offset = offset;
+            this.stride = stride;
+            this.depth = depth;
+            this.palette = palette.length > 1 << depth ? Arrays.copyOf(palette, 1 << depth) : palette;
+        }
+
+        int bitDepth() {
+            return depth;
+        }
+
+        int colorType() {
+            return COLOR_INDEXED;
+        }
+
+        int lineBytes() {
+            return 1 + (width * depth + 7) / 8;
+        }
+
+        // the spec recommends no filtering for palette images
+        void line(int y, byte[] out, int at) {
+            out[at] = FILTER_NONE;
+            System.arraycopy(data, offset + y * stride, out, at + 1, lineBytes() - 1);
+        }
+
+        void writePalette(DataOutputStream out) throws IOException {
+            byte[] plte = new byte[palette.length * 3];
+            int alphas = 0;
+            for (int i = 0; i < palette.length; i++) {
+                plte[3 * i] = (byte) (palette[i] >>> 16);
+                plte[3 * i + 1] = (byte) (palette[i] >>> 8);
+                plte[3 * i + 2] = (byte) palette[i];
+                if ((palette[i] >>> 24) != 0xFF) alphas = i + 1;
+            }
+            chunk(out, "PLTE", plte, plte.length);
+            if (alphas > 0) {
+                byte[] trns = new byte[alphas];
+                for (int i = 0; i < alphas; i++) {
+                    trns[i] = (byte) (palette[i] >>> 24);
+                }
+                chunk(out, "tRNS", trns, alphas);
+            }
+        }
+    }
+
+    private static final class Truecolor extends Scanlines {
+        private final int[] argb;
+        private final int channels;
+        private final int colorType;
+
+        Truecolor(int[] argb, int width, int height, int colorType) {
+            super(width, height);
+            this.argb = argb;
+            this.colorType = colorType;
+            this.channels = colorType == COLOR_RGBA ? 4 : 3;
+        }
+
+        int bitDepth() {
+            return 8;
+        }
+
+        int colorType() {
+            return colorType;
+        }
+
+        int lineBytes() {
+            return 1 + width * channels;
+        }
+
+        // Sub filter: runs of one colour become runs of zeros
+        void line(int y, byte[] out, int at) {
+            out[at++] = FILTER_SUB;
+            int prev = 0;
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                int c = argb[i];
+                out[at++] = (byte) ((c >>> 16) - (prev >>> 16));
+                out[at++] = (byte) ((c >>> 8) - (prev >>> 8));
+                out[at++] = (byte) (c - prev);
+                if (channels == 4) out[at++] = (byte) ((c >>> 24) - (prev >>> 24));
+                prev = c;
+            }
+        }
+    }
+
+    // One deflated row range: sync-flushed (or finished, for the last) raw deflate data, plus the
+    // Adler-32 and length of its uncompressed bytes for combining.
+    private static final class Piece {
+        final byte[] data;
+        final int length;
+        final int adler;
+        final long rawLength;
+
+        Piece(byte[] data, int length, int adler, long rawLength) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private static void write(Scanlines lines, Path path) throws IOException {
+        int lineBytes = lines.lineBytes();
+        int rowsPerPiece = Math.max(1, CHUNK_BYTES / lineBytes);
+        int pieces = Math.max(1, (lines.height + rowsPerPiece - 1) / rowsPerPiece);
+        int inFlight = 2 * ForkJoinPool.getCommonPoolParallelism();
+        Metrics.Span span = Metrics.start(Metrics.Stage.PNG_WRITE);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 << 10))) {
+            out.write(SIGNATURE);
+            byte[] ihdr = new byte[13];
+            putInt(ihdr, 0, lines.width);
+            putInt(ihdr, 4, lines.height);
+            ihdr[8] = (byte) lines.bitDepth();
+            ihdr[9] = (byte) lines.colorType();
+            chunk(out, "IHDR", ihdr, ihdr.length);
+            lines.writePalette(out);
+
+            // zlib header for the default level: deflate, 32 KB window, no preset dictionary
+            byte[] zlibHeader = { 0x78, (byte) 0x9C };
+            chunk(out, "IDAT", zlibHeader, zlibHeader.length);
+
+            long adler = 1;
+            if (pieces == 1) {
+                Piece piece = deflate(lines, 0, lines.height, true);
+                chunk(out, "IDAT", piece.data, piece.length);
+                adler = piece.adler & 0xFFFFFFFFL;
+            } else {
+                ArrayDeque<CompletableFuture<Piece>> queue = new ArrayDeque<>();
+                int next = 0;
+                for (int p = 0; p < pieces; p++) {
+                    while (next < pieces && queue.size() < inFlight) {
+                        final int from = next * rowsPerPiece;
+                        final int to = Math.min(lines.height, from + rowsPerPiece);
+                        final boolean last = next == pieces - 1;
+                        queue.add(CompletableFuture.supplyAsync(() -> deflate(lines, from, to, last)));
+                        next++;
+                    }
+                    Piece piece = queue.poll().join();
+                    chunk(out, "IDAT", piece.data, piece.length);
+                    adler = p == 0 ? piece.adler & 0xFFFFFFFFL : adler32Combine(adler, piece.adler & 0xFFFFFFFFL, piece.rawLength);
+                }
+            }
+
+            byte[] trailer = new byte[4];
+            putInt(trailer, 0, (int) adler);
+            chunk(out, "IDAT", trailer, trailer.length);
+            chunk(out, "IEND", trailer, 0);
+            Metrics.add(Metrics.Counter.PNG_BYTES, out.size());
+            span.finish(out.size());
+        }
+    }
+
+    // Filters rows [from, to) and deflates them, primed with up to 32 KB of the scanlines before from.
+    private static Piece deflate(Scanlines lines, int from, int to, boolean last) {
+        int lineBytes = lines.lineBytes();
+        int dictRows = Math.min(from, (WINDOW + lineBytes - 1) / lineBytes);
+        int first = from - dictRows;
+        byte[] raw = new byte[(to - first) * lineBytes];
+        for (int y = first; y < to; y++) {
+            lines.line(y, raw, (y - first) * lineBytes);
+        }
+        int start = dictRows * lineBytes;
+        int length = raw.length - start;
+
+        Adler32 adler = new Adler32();
+        adler.update(raw, start, length);
+
+        Deflater deflater = new Deflater(LEVEL, true);
+        try {
+            if (start > 0) {
+                int dict = Math.min(start, WINDOW);
+                deflater.setDictionary(raw, start - dict, dict);
+            }
+            deflater.setInput(raw, start, length);
+            byte[] out = new byte[Math.max(64, length / 2)];
+            int pos = 0;
+            if (last) deflater.finish();
+            while (true) {
+                pos += deflater.deflate(out, pos, out.length - pos, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                if (last ? deflater.finished() : pos < out.length) break;
+                if (pos == out.length) out = Arrays.copyOf(out, out.length * 2);
+            }
+            return new Piece(out, pos, (int) adler.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // zlib's adler32_combine: the Adler-32 of A followed by B from those of A and B and B's length
+    static long adler32Combine(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+}
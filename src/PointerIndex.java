@@ -0,0 +1,116 @@
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Every word-aligned 32-bit value in the ROM that is a pointer into it (0x08000000-0x09FFFFFF and inside
+// the file), indexed by the offset it points at. Built in one pass over the ROM, cut into chunks scanned in
+// parallel, into a single sorted long[] of (target << 32 | source), so referencesTo(t) is a binary search
+// and the references to one target sit next to each other.
+//
+// Literal pools in code, pointer tables and script data all show up; data that happens to look like a
+// pointer does too, so callers check what they find (see RomTables).
+final class PointerIndex {
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private final long[] refs;
+    private final int[] targets; // distinct targets, ascending
+
+    private PointerIndex(long[] refs, int[] targets) {
+        this.refs = refs;
+        this.targets = targets;
+    }
+
+    static PointerIndex build(RomReader rom) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.POINTER_SCAN);
+        int size = rom.size() & ~3;
+        int chunks = (size + CHUNK_BYTES - 1) / CHUNK_BYTES;
+        long[][] found = IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> scan(rom, c * CHUNK_BYTES, Math.min(CHUNK_BYTES, size - c * CHUNK_BYTES)))
+                .toArray(long[][]::new);
+
+        int total = 0;
+        for (long[] f : found) {
+            total += f.length;
+        }
+        long[] refs = new long[total];
+        int n = 0;
+        for (long[] f : found) {
+            System.arraycopy(f, 0, refs, n, f.length);
+            n += f.length;
+        }
+        Arrays.parallelSort(refs);
+
+        int distinct = 0;
+        for (int i = 0; i < refs.length; i++) {
+            if (i == 0 || (refs[i] >>> 32) != (refs[i - 1] >>> 32)) distinct++;
+        }
+        int[] targets = new int[distinct];
+        for (int i = 0, t = 0; i < refs.length; i++) {
+            if (i == 0 || (refs[i] >>> 32) != (refs[i - 1] >>> 32)) targets[t++] = (int) (refs[i] >>> 32);
+        }
+        span.finish(size);
+        return new PointerIndex(refs, targets);
+    }
+
+    // Pointers in [offset, offset + length), as (target << 32 | source), in source order.
+    private static long[] scan(RomReader rom, int offset, int length) {
+        IntBuffer words = rom.slice(offset, length).asIntBuffer();
+        int limit = rom.size();
+        long[] out = new long[1024];
+        int n = 0;
+        for (int i = 0; i < words.limit(); i++) {
+            int value = words.get(i);
+            if (!RomReader.isPointer(value)) continue;
+            int target = RomReader.toOffset(value);
+            if (target >= limit) continue;
+            if (n == out.length) out = Arrays.copyOf(out, n * 2);
+            out[n++] = (long) target << 32 | (offset + i * 4);
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // number of pointer words found
+    int size() {
+        return refs.length;
+    }
+
+    // distinct targets, target(0..targetCount()-1) ascending
+    int targetCount() {
+        return targets.length;
+    }
+
+    int target(int i) {
+        return targets[i];
+    }
+
+    // Offsets of the words pointing at target, ascending.
+    int[] referencesTo(int target) {
+        int from = lowerBound((long) target << 32);
+        int to = lowerBound((long) (target + 1) << 32);
+        int[] sources = new int[to - from];
+        for (int i = from; i < to; i++) {
+            sources[i - from] = (int) refs[i];
+        }
+        return sources;
+    }
+
+    int referenceCount(int target) {
+        return lowerBound((long) (target + 1) << 32) - lowerBound((long) target << 32);
+    }
+
+    private int lowerBound(long key) {
+        int lo = 0;
+        int hi = refs.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (refs[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d pointers to %d targets", refs.length, targets.length);
+    }
+}
@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+// Streams one ROM's extracted data into Postgres: species, map headers, encounters, sprite palettes and
+// names. Each table is COPYed (CSV) into a temporary staging table and merged with one
+// INSERT .. ON CONFLICT DO UPDATE, updating only rows that changed and deleting the ROM's rows that are
+// gone, so exporting the same ROM again rewrites nothing. A ROM is one transaction.
+//   java Main <rom> --export jdbc:postgresql://localhost/pokemon?user=postgres
+class PostgresExporter implements AutoCloseable {
+    private static final int COPY_BUFFER = 64 << 10;
+
+    // name, column definitions with the primary key columns first, number of key columns
+    private static final Table SPECIES = new Table("species", 2,
+            "rom text", "species smallint", "name text", "hp smallint", "attack smallint", "defense smallint",
+            "speed smallint", "sp_attack smallint", "sp_defense smallint", "type1 smallint", "type2 smallint",
+            "catch_rate smallint", "base_exp smallint", "item1 integer", "item2 integer", "gender smallint",
+            "egg_cycles smallint", "friendship smallint", "growth_rate smallint", "egg_group1 smallint",
+            "egg_group2 smallint", "ability1 smallint", "ability2 smallint", "safari_flee smallint",
+            "color smallint");
+    private static final Table MAP_HEADER = new Table("map_header", 3,
+            "rom text", "bank smallint", "map smallint", "header integer", "map_data integer", "events integer",
+            "scripts integer", "connections integer", "music integer", "layout_id integer", "label smallint",
+            "name text", "weather smallint", "map_type smallint", "battle_type smallint", "width integer",
+            "height integer", "primary_tileset integer", "secondary_tileset integer");
+    private static final Table ENCOUNTER = new Table("encounter", 5,
+            "rom text", "bank smallint", "map smallint", "habitat text", "slot smallint", "rate smallint",
+            "species integer", "min_level smallint", "max_level smallint");
+    private static final Table PALETTE = new Table("palette", 4,
+            "rom text", "species smallint", "shiny boolean", "color smallint", "bgr555 integer", "rgb integer");
+    private static final Table NAME = new Table("name", 3,
+            "rom text", "kind text", "number smallint", "name text");
+    private static final Table[] TABLES = { SPECIES, MAP_HEADER, ENCOUNTER, PALETTE, NAME };
+
+    private final Connection connection;
+    private final CopyManager copy;
+    private final AssetCache cache;
+
+    PostgresExporter(String url, AssetCache cache) throws SQLException {
+        this.connection = DriverManager.getConnection(url);
+        this.connection.setAutoCommit(false);
+        this.copy = connection.unwrap(PGConnection.class).getCopyAPI();
+        this.cache = cache;
+    }
+
+    void createSchema() throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS rom (rom text PRIMARY KEY, exported_at timestamptz NOT NULL)");
+            for (Table table : TABLES) {
+                st.execute("CREATE TABLE IF NOT EXISTS " + table.name + " (" + String.join(", ", table.definitions)
+                        + ", PRIMARY KEY (" + table.keyList() + "))");
+            }
+        }
+        connection.commit();
+    }
+
+    // Exports the first numSpecies species (after the empty entry 0) and everything in maps as romName.
+    Report export(String romName, RomReader rom, MapIndex maps, int numSpecies) throws SQLException, IOException {
+        Metrics.Span span = Metrics.start(Metrics.Stage.EXPORT);
+        Report report = new Report(romName);
+        StringPool speciesNames = rom.readStrings(rom.tables().speciesNames(), 11, numSpecies + 1);
+        StringPool typeNames = rom.readStrings(rom.tables().typeNames(), 7, 18);
+        StringPool mapNames = rom.readStringTable(rom.tables().mapNames(), 109);
+        try {
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO rom VALUES (?, now()) "
+                    + "ON CONFLICT (rom) DO UPDATE SET exported_at = EXCLUDED.exported_at")) {
+                ps.setString(1, romName);
+                ps.executeUpdate();
+            }
+
+            SpeciesTable species = SpeciesTable.build(rom, rom.tables().speciesData(), numSpecies + 1);
+            try (Copy c = begin(SPECIES, report)) {
+                for (int pid = 1; pid < species.count(); pid++) {
+                    c.text(romName).number(pid).text(speciesNames.get(pid));
+                    for (SpeciesTable.Stat stat : SpeciesTable.Stat.values()) {
+                        c.number(species.stat(pid, stat));
+                    }
+                    c.number(species.type1(pid)).number(species.type2(pid)).number(species.catchRate(pid))
+                            .number(species.baseExp(pid)).number(species.item1(pid)).number(species.item2(pid))
+                            .number(species.gender(pid)).number(species.eggCycles(pid)).number(species.friendship(pid))
+                            .number(species.growthRate(pid)).number(species.eggGroup1(pid)).number(species.eggGroup2(pid))
+                            .number(species.ability1(pid)).number(species.ability2(pid)).number(species.safariFlee(pid))
+                            .number(species.color(pid)).endRow();
+                }
+            }
+            merge(SPECIES, romName, report);
+
+            try (Copy c = begin(MAP_HEADER, report)) {
+                for (int m = 0; m < maps.count(); m++) {
+                    int name = maps.label(m) - EncounterTable.FIRST_LABEL;
+                    c.text(romName).number(maps.bank(m)).number(maps.mapNumber(m)).number(maps.header(m))
+                            .number(maps.mapData(m)).number(maps.events(m)).number(maps.scripts(m))
+                            .number(maps.connections(m)).number(maps.music(m)).number(maps.layoutId(m))
+                            .number(maps.label(m)).text(name >= 0 && name < mapNames.count() ? mapNames.get(name) : null)
+                            .number(maps.weather(m)).number(maps.mapType(m)).number(maps.battleType(m))
+                            .number(maps.width(m)).number(maps.height(m)).number(maps.primaryTileset(m))
+                            .number(maps.secondaryTileset(m)).endRow();
+                }
+            }
+            merge(MAP_HEADER, romName, report);
+
+            EncounterTable encounters = EncounterTable.build(rom, rom.tables().encounters(), maps);
+            // a map listed twice in the table keeps its first slot sets, the ones the game finds first
+            boolean[] listed = new boolean[1 << 16];
+            boolean[] first = new boolean[encounters.headers()];
+            for (int h = 0; h < encounters.headers(); h++) {
+                int map = encounters.bank(h) << 8 | encounters.mapNumber(h);
+                first[h] = !listed[map];
+                listed[map] = true;
+            }
+            try (Copy c = begin(ENCOUNTER, report)) {
+                for (int slot = 0; slot < encounters.slots(); slot++) {
+                    int h = encounters.header(slot);
+                    if (!first[h]) continue;
+                    c.text(romName).number(encounters.bank(h)).number(encounters.mapNumber(h))
+                            .text(encounters.habitat(slot).name()).number(encounters.slotIndex(slot))
+                            .number(encounters.rate(h, encounters.habitat(slot))).number(encounters.species(slot))
+                            .number(encounters.minLevel(slot)).number(encounters.maxLevel(slot)).endRow();
+                }
+            }
+            merge(ENCOUNTER, romName, report);
+
+            final int normal = rom.tables().normalPalettes();
+            final int shiny = rom.tables().shinyPalettes();
+            try (Copy c = begin(PALETTE, report)) {
+                for (int pid = 1; pid <= numSpecies; pid++) {
+                    palette(c, romName, rom, pid, false, rom.read24(normal + 8 * pid));
+                    palette(c, romName, rom, pid, true, rom.read24(shiny + 8 * pid));
+                }
+            }
+            merge(PALETTE, romName, report);
+
+            try (Copy c = begin(NAME, report)) {
+                names(c, romName, "species", speciesNames);
+                names(c, romName, "type", typeNames);
+                names(c, romName, "map", mapNames);
+            }
+            merge(NAME, romName, report);
+
+            connection.commit();
+        } catch (SQLException | IOException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        }
+        report.finish();
+        span.finish(report.bytes);
+        return report;
+    }
+
+    private void palette(Copy c, String romName, RomReader rom, int pid, boolean shiny, int offset) throws IOException {
+        Palette palette;
+        try {
+            palette = cache.readPalettes(rom, offset, 1, true);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return; // no palette rows for a species whose palette does not decompress
+        }
+        for (int i = 0; i < Palette.COLORS; i++) {
+            c.text(romName).number(pid).bool(shiny).number(i)
+                    .number(palette.color(0, i, Palette.Format.BGR555))
+                    .number(palette.color(0, i, Palette.Format.RGB888)).endRow();
+        }
+    }
+
+    private static void names(Copy c, String romName, String kind, StringPool names) throws IOException {
+        for (int i = 0; i < names.count(); i++) {
+            c.text(romName).text(kind).number(i).text(names.get(i)).endRow();
+        }
+    }
+
+    private Copy begin(Table table, Report report) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TEMP TABLE IF NOT EXISTS stage_" + table.name + " (LIKE " + table.name + ") ON COMMIT DROP");
+        }
+        return new Copy(copy.copyIn("COPY stage_" + table.name + " FROM STDIN (FORMAT csv)"), table, report);
+    }
+
+    // Staging rows into the real table: new rows inserted, changed rows updated, unchanged rows left
+    // alone (no dead tuples on a re-run), and rows of this ROM missing from the staging table deleted.
+    private void merge(Table table, String romName, Report report) throws SQLException {
+        long start = System.nanoTime();
+        String columns = table.columnList();
+        StringBuilder set = new StringBuilder();
+        StringBuilder mine = new StringBuilder();
+        StringBuilder theirs = new StringBuilder();
+        for (int i = table.keys; i < table.columns.length; i++) {
+            String column = table.columns[i];
+            set.append(i > table.keys ? ", " : "").append(column).append(" = EXCLUDED.").append(column);
+            mine.append(i > table.keys ? ", " : "").append("t.").append(column);
+            theirs.append(i > table.keys ? ", " : "").append("EXCLUDED.").append(column);
+        }
+        StringBuilder match = new StringBuilder();
+        for (int i = 0; i < table.keys; i++) {
+            match.append(i > 0 ? " AND " : "").append("s.").append(table.columns[i]).append(" = t.").append(table.columns[i]);
+        }
+
+        int changed;
+        int deleted;
+        try (Statement st = connection.createStatement()) {
+            changed = st.executeUpdate("INSERT INTO " + table.name + " AS t (" + columns + ") "
+                    + "SELECT DISTINCT ON (" + table.keyList() + ") " + columns + " FROM stage_" + table.name
+                    + " ORDER BY " + table.keyList()
+                    + " ON CONFLICT (" + table.keyList() + ") DO UPDATE SET " + set
+                    + " WHERE (" + mine + ") IS DISTINCT FROM (" + theirs + ")");
+        }
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + table.name + " t WHERE t.rom = ? "
+                + "AND NOT EXISTS (SELECT 1 FROM stage_" + table.name + " s WHERE " + match + ")")) {
+            ps.setString(1, romName);
+            deleted = ps.executeUpdate();
+        }
+        try (Statement st = connection.createStatement()) {
+            st.execute("TRUNCATE stage_" + table.name);
+        }
+        report.merged(table, changed, deleted, System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        connection.close();
+    }
+
+    private static final class Table {
+        final String name;
+        final int keys;
+        final String[] definitions;
+        final String[] columns;
+
+        Table(String name, int keys, String... definitions) {
+            this.name = name;
+            this.keys = keys;
+            this.definitions = definitions;
+            this.columns = new String[definitions.length];
+            for (int i = 0; i < definitions.length; i++) {
+                columns[i] = definitions[i].substring(0, definitions[i].indexOf(' '));
+            }
+        }
+
+        String columnList() {
+            return String.join(", ", columns);
+        }
+
+        String keyList() {
+            return String.join(", ", java.util.Arrays.copyOf(columns, keys));
+        }
+    }
+
+    // One table's CSV rows, encoded into a buffer and handed to the server COPY_BUFFER bytes at a time.
+    private static final class Copy implements AutoCloseable {
+        private final CopyIn in;
+        private final Table table;
+        private final Report report;
+        private final StringBuilder row = new StringBuilder(256);
+        private boolean first = true;
+        private final long start = System.nanoTime();
+        private byte[] buffer = new byte[COPY_BUFFER];
+        private int length;
+        private long rows;
+        private long bytes;
+
+        Copy(CopyIn in, Table table, Report report) {
+            this.in = in;
+            this.table = table;
+            this.report = report;
+        }
+
+        Copy number(long value) {
+            separate();
+            row.append(value);
+            return this;
+        }
+
+        Copy bool(boolean value) {
+            separate();
+            row.append(value ? 't' : 'f');
+            return this;
+        }
+
+        // null is written as an empty unquoted field, which CSV COPY reads as NULL
+        Copy text(String value) {
+            separate();
+            if (value == null) return this;
+            row.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char ch = value.charAt(i);
+                if (ch == '"') row.append('"');
+                row.append(ch);
+            }
+            row.append('"');
+            return this;
+        }
+
+        private void separate() {
+            if (!first) row.append(',');
+            first = false;
+        }
+
+        void endRow() throws IOException {
+            row.append('\n');
+            byte[] encoded = row.toString().getBytes(StandardCharsets.UTF_8);
+            row.setLength(0);
+            first = true;
+            if (length + encoded.length > buffer.length) {
+                flush();
+                if (encoded.length > buffer.length) buffer = new byte[encoded.length];
+            }
+            System.arraycopy(encoded, 0, buffer, length, encoded.length);
+            length += encoded.length;
+            rows++;
+        }
+
+        private void flush() throws IOException {
+            if (length == 0) return;
+            try {
+                in.writeToCopy(buffer, 0, length);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+            bytes += length;
+            length = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                in.endCopy();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            } finally {
+                if (in.isActive()) {
+                    try {
+                        in.cancelCopy();
+                    } catch (SQLException ignored) {
+                    }
+                }
+            }
+            report.copied(table, rows, bytes, System.nanoTime() - start);
+        }
+    }
+
+    // Rows, bytes and time per table for one ROM, printed as the throughput report.
+    static final class Report {
+        private final String rom;
+        private final long start = System.nanoTime();
+        private final StringBuilder lines = new StringBuilder();
+        private long rows;
+        private long bytes;
+        private long changed;
+        private long deleted;
+        private long nanos;
+
+        Report(String rom) {
+            this.rom = rom;
+        }
+
+        void copied(Table table, long rows, long bytes, long nanos) {
+            this.rows += rows;
+            this.bytes += bytes;
+            lines.append(String.format("  %-10s %7d rows %8.1f KB  copy %6.1f ms", table.name, rows, bytes / 1024.0, nanos / 1e6));
+        }
+
+        void merged(Table table, int changed, int deleted, long nanos) {
+            this.changed += changed;
+            this.deleted += deleted;
+            lines.append(String.format("  merge %6.1f ms, %d changed, %d deleted\n", nanos / 1e6, changed, deleted));
+        }
+
+        // rows inserted or updated, over every table
+        long changed() {
+            return changed;
+        }
+
+        long deleted() {
+            return deleted;
+        }
+
+        Report finish() {
+            nanos = System.nanoTime() - start;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = nanos / 1e9;
+            return String.format("Export %s: %d rows, %.1f KB in %.1f ms (%.0f rows/s, %.1f MB/s)\n%s", rom, rows,
+                    bytes / 1024.0, nanos / 1e6, rows / seconds, bytes / seconds / (1 << 20), lines);
+        }
+    }
+}
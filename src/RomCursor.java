@@ -0,0 +1,69 @@
+// A position in a shared RomReader. Cursors are cheap and single-threaded: give each worker its own,
+// they all read the same mapping with absolute gets so nothing is shared except the ROM bytes.
+public class RomCursor {
+    private final RomReader rom;
+    private int position;
+
+    RomCursor(RomReader rom, int position) {
+        this.rom = rom;
+        this.position = position;
+    }
+
+    public RomCursor seek(int offset) {
+        this.position = offset;
+        return this;
+    }
+
+    public RomCursor skip(int bytes) {
+        this.position += bytes;
+        return this;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public int read8() {
+        int v = rom.read8(position);
+        position += 1;
+        return v;
+    }
+
+    public int read16() {
+        int v = rom.read16(position);
+        position += 2;
+        return v;
+    }
+
+    public int read24() {
+        int v = rom.read24(position);
+        position += 3;
+        return v;
+    }
+
+    // 4-byte pointers are the common case, read24 drops the 0x08 bank byte but this keeps the cursor aligned
+    public int readPointer() {
+        int v = rom.read24(position);
+        position += 4;
+        return v;
+    }
+
+    public int read32() {
+        int v = rom.read32(position);
+        position += 4;
+        return v;
+    }
+
+    public void readBytes(byte[] out) {
+        rom.readBytes(position, out);
+        position += out.length;
+    }
+
+    // Leaves the cursor just past the 0xFF terminator.
+    public String readString() {
+        int end = rom.stringEnd(position);
+        String s = rom.readString(position);
+        position = end + 1;
+        return s;
+    }
+}
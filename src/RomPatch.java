@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// A patch applied to a base ROM in memory: the patched image and the byte ranges it differs in.
+// Reads IPS and UPS patches, or compares two ROMs directly when there is no patch file.
+//
+// IPS: "PATCH", then records of offset(3, big-endian) size(2) data, a size of 0 meaning an RLE run of
+// count(2) value(1), then "EOF" and an optional truncation offset(3).
+// UPS: "UPS1", input and output size as varints, hunks of skip(varint) and XOR bytes up to a 0, then the
+// CRC32 of the input, the output and the patch itself.
+class RomPatch {
+    final byte[] image;
+    final ByteRanges changed;
+
+    private RomPatch(byte[] image, ByteRanges changed) {
+        this.image = image;
+        this.changed = changed;
+    }
+
+    // By contents, not extension: IPS and UPS both start with a magic string.
+    static RomPatch apply(RomReader base, Path patch) throws IOException {
+        byte[] bytes = Files.readAllBytes(patch);
+        if (startsWith(bytes, "PATCH")) return ips(base, bytes);
+        if (startsWith(bytes, "UPS1")) return ups(base, bytes);
+        throw new IOException(patch + ": not an IPS or UPS patch");
+    }
+
+    static boolean isPatch(Path path) throws IOException {
+        byte[] magic = new byte[5];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n = in.readNBytes(magic, 0, magic.length);
+            return startsWith(Arrays.copyOf(magic, n), "PATCH") || startsWith(Arrays.copyOf(magic, n), "UPS1");
+        }
+    }
+
+    static RomPatch ips(RomReader base, byte[] patch) throws IOException {
+        byte[] image = new byte[base.size()];
+        base.readBytes(0, image);
+        ByteRanges.Builder changed = new ByteRanges.Builder();
+        ByteBuffer in = ByteBuffer.wrap(patch);
+        in.position(5);
+        while (true) {
+            if (in.remaining() < 3) throw new IOException("IPS patch ends without EOF");
+            int offset = u24(in);
+            if (offset == 0x454F46) break; // "EOF"
+            if (in.remaining() < 2) throw new IOException("IPS patch truncated");
+            int size = in.getShort() & 0xFFFF;
+            int run = size;
+            if (size == 0) {
+                if (in.remaining() < 3) throw new IOException("IPS patch truncated");
+                run = in.getShort() & 0xFFFF;
+            } else if (in.remaining() < size) {
+                throw new IOException("IPS patch truncated");
+            }
+            if (offset + run > image.length) {
+                image = Arrays.copyOf(image, offset + run);
+            }
+            if (size == 0) {
+                Arrays.fill(image, offset, offset + run, in.get());
+            } else {
+                in.get(image, offset, size);
+            }
+            changed.add(offset, offset + run);
+        }
+        if (in.remaining() >= 3) {
+            int length = u24(in);
+            if (length < image.length) {
+                changed.add(length, image.length);
+                image = Arrays.copyOf(image, length);
+            }
+        }
+        if (image.length > base.size()) {
+            changed.add(base.size(), image.length);
+        }
+        return new RomPatch(image, changed.build());
+    }
+
+    static RomPatch ups(RomReader base, byte[] patch) throws IOException {
+        if (patch.length < 4 + 12) throw new IOException("UPS patch truncated");
+        ByteBuffer in = ByteBuffer.wrap(patch, 0, patch.length - 12).order(ByteOrder.LITTLE_ENDIAN);
+        in.position(4);
+        long inputSize = varint(in);
+        long outputSize = varint(in);
+        if (inputSize != base.size()) {
+            throw new IOException(String.format("UPS patch is for a %d byte ROM, the base is %d bytes", inputSize, base.size()));
+        }
+        if (outputSize > Integer.MAX_VALUE) throw new IOException("UPS output too large");
+        byte[] image = new byte[(int) outputSize];
+        base.readBytes(0, image, 0, (int) Math.min(outputSize, base.size()));
+
+        ByteRanges.Builder changed = new ByteRanges.Builder();
+        if (outputSize != inputSize) {
+            changed.add((int) Math.min(inputSize, outputSize), (int) Math.max(inputSize, outputSize));
+        }
+        long pos = 0;
+        while (in.hasRemaining()) {
+            pos += varint(in);
+            long start = pos;
+            while (true) {
+                if (!in.hasRemaining()) throw new IOException("UPS hunk runs past the end of the patch");
+                int x = in.get() & 0xFF;
+                if (x == 0) break;
+                if (pos < image.length) {
+                    image[(int) pos] ^= (byte) x;
+                }
+                pos++;
+            }
+            changed.add((int) Math.min(start, image.length), (int) Math.min(pos, image.length));
+            pos++; // the terminator stands for an unchanged byte
+        }
+
+        ByteBuffer trailer = ByteBuffer.wrap(patch, patch.length - 12, 12).order(ByteOrder.LITTLE_ENDIAN);
+        int inputCrc = trailer.getInt();
+        int outputCrc = trailer.getInt();
+        int patchCrc = trailer.getInt();
+        if (crc32(patch, 0, patch.length - 4) != patchCrc) throw new IOException("UPS patch is corrupt (patch CRC)");
+        byte[] input = new byte[base.size()];
+        base.readBytes(0, input);
+        if (crc32(input, 0, input.length) != inputCrc) throw new IOException("UPS patch is for a different base ROM");
+        if (crc32(image, 0, image.length) != outputCrc) throw new IOException("UPS patch output CRC mismatch");
+        return new RomPatch(image, changed.build());
+    }
+
+    // Ranges where two ROMs differ, plus the tail of the longer one. Compares 4 KB blocks with a
+    // vectorised mismatch and only walks bytes inside blocks that differ.
+    static ByteRanges diff(RomReader a, RomReader b) {
+        final int block = 4096;
+        int common = Math.min(a.size(), b.size());
+        ByteRanges.Builder changed = new ByteRanges.Builder();
+        for (int offset = 0; offset < common; offset += block) {
+            int length = Math.min(block, common - offset);
+            ByteBuffer x = a.slice(offset, length);
+            ByteBuffer y = b.slice(offset, length);
+            int i = x.mismatch(y);
+            while (i >= 0 && i < length) {
+                int start = i;
+                while (i < length && x.get(i) != y.get(i)) i++;
+                changed.add(offset + start, offset + i);
+                while (i < length && x.get(i) == y.get(i)) i++;
+            }
+        }
+        changed.add(common, Math.max(a.size(), b.size()));
+        return changed.build();
+    }
+
+    private static boolean startsWith(byte[] bytes, String magic) {
+        if (bytes.length < magic.length()) return false;
+        for (int i = 0; i < magic.length(); i++) {
+            if (bytes[i] != magic.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int u24(ByteBuffer in) {
+        return (in.get() & 0xFF) << 16 | (in.get() & 0xFF) << 8 | (in.get() & 0xFF);
+    }
+
+    // UPS varints: 7 bits per byte, low first, the last byte has bit 7 set, each continuation adds one more
+    private static long varint(ByteBuffer in) throws IOException {
+        long value = 0;
+        long shift = 1;
+        while (true) {
+            if (!in.hasRemaining()) throw new IOException("UPS patch truncated");
+            int x = in.get() & 0xFF;
+            value += (x & 0x7F) * shift;
+            if ((x & 0x80) != 0) return value;
+            shift <<= 7;
+            value += shift;
+            if (shift > (1L << 49)) throw new IOException("UPS varint too long");
+        }
+    }
+
+    private static int crc32(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -1,19 +1,43 @@
 import java.nio.*;
 import java.nio.channels.*;
 import java.nio.file.*;
+import java.util.zip.CRC32C;
 
 public class RomReader implements AutoCloseable {
-    private static final int PALETTE_LENGTH = 16;
-    final int BYTES_PER_PALETTE = 32;
-    // TODO: compare 16MB of RAM to load the entire file into RAM perf vs this method.
-    // TODO: add seek, maybe still make thread safe so each instance i make operates on the same memory but can maintain their own position in the ROM.
+    // longest string followed through a pointer table before giving up on finding its terminator
+    static final int MAX_STRING = 0x1000;
+
+    // Every read is absolute so one reader can be shared between threads, use cursor() for sequential reads.
+    private final String id;
     private final FileChannel fc;
-    private final MappedByteBuffer map;
+    private final ByteBuffer map;
+    private final TextDecoder text = new TextDecoder();
+    private volatile RomTables tables;
 
     public RomReader(Path path) throws Exception {
+        this(path, RomStorage.MAPPED);
+    }
+
+    public RomReader(Path path, RomStorage storage) throws Exception {
+        this.id = path.toAbsolutePath().normalize().toString();
         this.fc = FileChannel.open(path, StandardOpenOption.READ);
-        this.map = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        this.map = storage.load(fc);
         this.map.order(ByteOrder.LITTLE_ENDIAN);
+        if (storage != RomStorage.MAPPED) {
+            fc.close(); // everything has been copied out already
+        }
+    }
+
+    // An image already in memory, e.g. a base ROM with a patch applied. id should name where it came from.
+    public RomReader(String id, byte[] image) {
+        this.id = id;
+        this.fc = null;
+        this.map = ByteBuffer.wrap(image).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Identifies the ROM for caches, the same file opened twice gets the same id.
+    public String id() {
+        return id;
     }
 
     public int read8(int offset) {
@@ -21,178 +45,252 @@ public class RomReader implements AutoCloseable {
     }
 
     public int read16(int offset) {
-        int b0 = map.get(offset)     & 0xFF;
-        int b1 = map.get(offset + 1) & 0xFF;
-        return b0 | (b1 << 8);
+        return map.getShort(offset) & 0xFFFF;
     }
 
     public int read24(int offset) {
-        int b0 = map.get(offset)     & 0xFF;
-        int b1 = map.get(offset + 1) & 0xFF;
-        int b2 = map.get(offset + 2) & 0xFF;
-        return b0 | (b1 << 8) | (b2 << 16);
+        return (map.getShort(offset) & 0xFFFF) | ((map.get(offset + 2) & 0xFF) << 16);
+    }
+
+    public int read32(int offset) {
+        return map.getInt(offset);
+    }
+
+    // GBA ROM addresses are 0x08000000-0x09FFFFFF
+    static boolean isPointer(int value) {
+        return (value & 0xFE000000) == 0x08000000;
+    }
+
+    static int toOffset(int pointer) {
+        return pointer & 0x01FFFFFF;
+    }
+
+    // A GBA pointer whose target lies inside this ROM.
+    public boolean isRomPointer(int value) {
+        return isPointer(value) && toOffset(value) < size();
+    }
+
+    public int size() {
+        return map.limit();
     }
 
     public void readBytes(int offset, byte[] out) {
-        for (int i = 0; i < out.length; i++) {
-            out[i] = map.get(offset + i);
-        }
+        readBytes(offset, out, 0, out.length);
     }
 
-    public int[][][] readPalettes(int offset, int numPalettes, boolean compressed) {
-        // TODO: let user request different colour formats other than RGB
-        // TODO: if compressed, decompress it first (will require a larger buffer?)
-        byte[] buffer = new byte[BYTES_PER_PALETTE * numPalettes];
-        readBytes(offset, buffer);
-        if (compressed) {
-            buffer = RomReader.decompressLZ10(buffer);
-        }
+    public void readBytes(int offset, byte[] out, int outOffset, int length) {
+        // absolute bulk copy through a duplicate so the shared map's position is never touched
+        map.duplicate().position(offset).get(out, outOffset, length);
+        Metrics.add(Metrics.Counter.BYTES_READ, length);
+    }
 
-        int[][][] rgb = new int[numPalettes][PALETTE_LENGTH][3];
+    // Little-endian 16-bit values, e.g. a map's tile structure or a block's 8 tile references.
+    public void readShorts(int offset, short[] out) {
+        slice(offset, out.length * 2).asShortBuffer().get(out);
+        Metrics.add(Metrics.Counter.BYTES_READ, out.length * 2);
+    }
 
-        for (int p = 0; p < numPalettes; p++) {
-            for (int k = 0; k < 32; k += 2) {
-                int index = k / 2;
-                int lo = buffer[p * BYTES_PER_PALETTE + k] & 0xFF;
-                int hi = buffer[p * BYTES_PER_PALETTE + k + 1] & 0xFF;
-                int color = (hi << 8) | lo;
+    // Zero-copy read-only view of [offset, offset + length), little-endian like the ROM itself.
+    public ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = map.duplicate();
+        view.position(offset).limit(offset + length);
+        // asReadOnlyBuffer() resets the order to big-endian, so set it last
+        return view.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
 
-                int red = color & 0x1F;
-                int green = (color >>> 5) & 0x1F;
-                int blue = (color >>> 10) & 0x1F;
+    public Palette readPalettes(int offset, int numPalettes, boolean compressed) {
+        return readPalettes(offset, numPalettes, compressed, Palette.Format.RGB888);
+    }
 
-                rgb[p][index][0] = 8 * red;
-                rgb[p][index][1] = 8 * green;
-                rgb[p][index][2] = 8 * blue;
+    public Palette readPalettes(int offset, int numPalettes, boolean compressed, Palette.Format format) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.PALETTE);
+        byte[] buffer = new byte[Palette.BYTES * numPalettes];
+        if (compressed) {
+            if (lz10Size(offset) < buffer.length || decompressLZ10(offset, buffer) < 0) {
+                throw new IllegalArgumentException(String.format("Bad compressed palette @ %06X", offset));
             }
+        } else {
+            readBytes(offset, buffer);
         }
+        Palette palette = Palette.decode(buffer, numPalettes, format);
+        span.finish(buffer.length);
+        return palette;
+    }
 
-        return rgb;
+    public RomCursor cursor() {
+        return new RomCursor(this, 0);
+    }
+
+    public RomCursor cursor(int offset) {
+        return new RomCursor(this, offset);
     }
 
     public String readString(int offset) {
-        StringBuilder sb = new StringBuilder();
-        map.position(offset);
+        return text.decode(map, offset, map.limit());
+    }
+
+    // count fixed-width names stride bytes apart, e.g. species names (11) or type names (7)
+    public StringPool readStrings(int offset, int stride, int count) {
+        return text.decodeTable(map, offset, stride, count);
+    }
 
-        while (true) {
-            byte b = map.get();
-            int v = b & 0xFF;
+    // count strings through the pointer table at table, e.g. map names
+    public StringPool readStringTable(int table, int count) {
+        return text.decodePointerTable(map, table, count, MAX_STRING);
+    }
 
-            if (v == 0xFF) {
-                break; // terminator reached
+    // Where this ROM keeps the tables the extractors read, located on first use.
+    RomTables tables() {
+        RomTables t = tables;
+        if (t == null) {
+            synchronized (this) {
+                t = tables;
+                if (t == null) {
+                    tables = t = RomTables.locate(this);
+                }
             }
-
-            sb.append(mapChar(b));
         }
+        return t;
+    }
 
-        return sb.toString();
-    }
-
-    private char mapChar(byte b) {
-        int v = b & 0xFF;
-
-        switch (v) {
-            case 0x00: return ' ';
-
-            case 0x1B: return 'é';
-
-            case 0xA1: return '0';
-            case 0xA2: return '1';
-            case 0xA3: return '2';
-            case 0xA4: return '3';
-            case 0xA5: return '4';
-            case 0xA6: return '5';
-            case 0xA7: return '6';
-            case 0xA8: return '7';
-            case 0xA9: return '8';
-            case 0xAA: return '9';
-            case 0xAB: return '!';
-            case 0xAC: return '?';
-            case 0xAD: return '.';
-
-            case 0xB4: return '\'';
-            case 0xB5: return '♂';
-            case 0xB6: return '♀';
-
-            case 0xBB: return 'A';
-            case 0xBC: return 'B';
-            case 0xBD: return 'C';
-            case 0xBE: return 'D';
-            case 0xBF: return 'E';
-
-            case 0xC0: return 'F';
-            case 0xC1: return 'G';
-            case 0xC2: return 'H';
-            case 0xC3: return 'I';
-            case 0xC4: return 'J';
-            case 0xC5: return 'K';
-            case 0xC6: return 'L';
-            case 0xC7: return 'M';
-            case 0xC8: return 'N';
-            case 0xC9: return 'O';
-            case 0xCA: return 'P';
-            case 0xCB: return 'Q';
-            case 0xCC: return 'R';
-            case 0xCD: return 'S';
-            case 0xCE: return 'T';
-            case 0xCF: return 'U';
-
-            case 0xD0: return 'V';
-            case 0xD1: return 'W';
-            case 0xD2: return 'X';
-            case 0xD3: return 'Y';
-            case 0xD4: return 'Z';
-
-            default:
-                System.out.printf("Unknown Character: %02X\n", v);
-                return '\n';
-        }
+    // Unknown character counts for every string read so far.
+    public TextDecoder text() {
+        return text;
+    }
+
+    // Offset of the 0xFF terminator of the string at offset.
+    int stringEnd(int offset) {
+        return TextDecoder.stringEnd(map, offset, map.limit());
     }
 
     @Override
     public void close() throws Exception {
-        fc.close();
+        if (fc != null) {
+            fc.close();
+        }
     }
 
     public static byte[] decompressLZ10(byte[] input) {
-        if ((input[0] & 0xFF) != 0x10) {
+        ByteBuffer in = ByteBuffer.wrap(input);
+        int outSize = lz10Size(in, 0);
+        if (outSize < 0) {
             throw new IllegalArgumentException("Not LZ10 compressed");
         }
 
-        int outSize = ((input[1] & 0xFF) |
-                ((input[2] & 0xFF) << 8) |
-                ((input[3] & 0xFF) << 16));
-
         byte[] output = new byte[outSize];
+        if (decompressLZ10(in, 0, output) < 0) {
+            throw new IllegalArgumentException("Malformed LZ10 stream");
+        }
+        return output;
+    }
 
-        int inPos = 4;
-        int outPos = 0;
+    // Decompressed size from the LZ10 header at offset, or -1 if there is no LZ10 stream there.
+    public int lz10Size(int offset) {
+        return lz10Size(map, offset);
+    }
+
+    // Decompresses straight out of the ROM into out, which must hold at least lz10Size(offset) bytes.
+    // Returns the number of compressed bytes consumed, or -1 if the stream is malformed.
+    public int decompressLZ10(int offset, byte[] out) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.DECOMPRESS);
+        int consumed = decompressLZ10(map, offset, out);
+        if (consumed >= 0) {
+            int size = lz10Size(map, offset);
+            Metrics.add(Metrics.Counter.COMPRESSED_BYTES, consumed);
+            Metrics.add(Metrics.Counter.DECOMPRESSED_BYTES, size);
+            span.finish(size);
+        }
+        return consumed;
+    }
+
+    // Compressed length of the LZ10 stream at offset, header included, or -1 if it is not a valid stream.
+    // Walks the tokens without producing output, for hashing a compressed asset before decoding it.
+    public int lz10Length(int offset) {
+        return lz10Length(map, offset);
+    }
+
+    // CRC32C of length bytes at offset, hardware accelerated on most CPUs.
+    public int crc32c(int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(slice(offset, length));
+        return (int) crc.getValue();
+    }
 
+    static int lz10Length(ByteBuffer in, int offset) {
+        final int outSize = lz10Size(in, offset);
+        if (outSize < 0) {
+            return -1;
+        }
+
+        final int limit = in.limit();
+        int inPos = offset + 4;
+        int outPos = 0;
         while (outPos < outSize) {
-            int flags = input[inPos++] & 0xFF;
+            if (inPos >= limit) return -1;
+            int flags = in.get(inPos++) & 0xFF;
 
-            for (int i = 7; i >= 0; i--) {
-                if (outPos >= outSize) break;
+            for (int mask = 0x80; mask != 0 && outPos < outSize; mask >>>= 1) {
+                if ((flags & mask) == 0) {
+                    inPos++;
+                    outPos++;
+                } else {
+                    if (inPos + 2 > limit) return -1;
+                    int b1 = in.get(inPos++) & 0xFF;
+                    int b2 = in.get(inPos++) & 0xFF;
+                    if ((((b1 & 0x0F) << 8) | b2) + 1 > outPos) return -1;
+                    outPos += (b1 >> 4) + 3;
+                }
+            }
+        }
+        return inPos > limit ? -1 : inPos - offset;
+    }
 
-                boolean compressed = ((flags >> i) & 1) == 1;
+    static int lz10Size(ByteBuffer in, int offset) {
+        if (offset < 0 || offset + 4 > in.limit() || in.get(offset) != 0x10) {
+            return -1;
+        }
+        return (in.get(offset + 1) & 0xFF) |
+                ((in.get(offset + 2) & 0xFF) << 8) |
+                ((in.get(offset + 3) & 0xFF) << 16);
+    }
+
+    static int decompressLZ10(ByteBuffer in, int offset, byte[] output) {
+        final int outSize = lz10Size(in, offset);
+        if (outSize < 0 || outSize > output.length) {
+            return -1;
+        }
+
+        final int limit = in.limit();
+        int inPos = offset + 4;
+        int outPos = 0;
+
+        while (outPos < outSize) {
+            if (inPos >= limit) return -1;
+            int flags = in.get(inPos++) & 0xFF;
 
-                if (!compressed) {
-                    output[outPos++] = input[inPos++];
+            for (int mask = 0x80; mask != 0 && outPos < outSize; mask >>>= 1) {
+                if ((flags & mask) == 0) {
+                    if (inPos >= limit) return -1;
+                    output[outPos++] = in.get(inPos++);
                 } else {
-                    int b1 = input[inPos++] & 0xFF;
-                    int b2 = input[inPos++] & 0xFF;
+                    if (inPos + 2 > limit) return -1;
+                    int b1 = in.get(inPos++) & 0xFF;
+                    int b2 = in.get(inPos++) & 0xFF;
 
                     int length = (b1 >> 4) + 3;
                     int disp = ((b1 & 0x0F) << 8) | b2;
                     int srcPos = outPos - (disp + 1);
+                    if (srcPos < 0) return -1;
 
-                    for (int j = 0; j < length; j++) {
+                    // the last back-reference may run past the declared size, the hardware just stops writing
+                    int end = Math.min(outPos + length, outSize);
+                    while (outPos < end) {
                         output[outPos++] = output[srcPos++];
                     }
                 }
             }
         }
 
-        return output;
+        return inPos - offset;
     }
 }
@@ -0,0 +1,51 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Where the ROM bytes live once opened. RomReader only ever sees a little-endian ByteBuffer,
+// so switching backends is a constructor argument. See jmh/bench/RomStorageBenchmark for numbers.
+public enum RomStorage {
+    // Lazily paged in by the OS, nothing copied up front.
+    MAPPED {
+        @Override
+        ByteBuffer load(FileChannel fc) throws IOException {
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+    },
+    // One 16 MB byte[] on the Java heap, read in full at open.
+    HEAP {
+        @Override
+        ByteBuffer load(FileChannel fc) throws IOException {
+            return readFully(fc, ByteBuffer.allocate(size(fc)));
+        }
+    },
+    // Off-heap copy, read in full at open.
+    DIRECT {
+        @Override
+        ByteBuffer load(FileChannel fc) throws IOException {
+            return readFully(fc, ByteBuffer.allocateDirect(size(fc)));
+        }
+    };
+
+    abstract ByteBuffer load(FileChannel fc) throws IOException;
+
+    private static int size(FileChannel fc) throws IOException {
+        long size = fc.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("ROM too large: " + size + " bytes");
+        }
+        return (int) size;
+    }
+
+    private static ByteBuffer readFully(FileChannel fc, ByteBuffer buffer) throws IOException {
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            int n = fc.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("ROM truncated while reading");
+            }
+            position += n;
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,363 @@
+// Where the tables the extractors read live in this ROM. FireRed (US 1.0) keeps a pointer to each at a
+// fixed site, e.g. species names at 0x144; hacks often move the tables and rewrite those pointers, but
+// revisions, other languages and some tools leave the sites stale. So each table has a signature: the site's
+// target is used if it matches, and only otherwise is the ROM scanned into a PointerIndex and every
+// pointed-at offset tried against the signature. A table nothing matches stays at its site's target.
+//
+// Tables of the same shape (front/back sprites, normal/shiny palettes) cannot be told apart by signature,
+// so a site that matches is always kept and the scan never hands its target to the other table. When both
+// sites of a pair are stale, the two most referenced candidates are taken in FireRed's order, front before
+// back and normal before shiny by address; a single candidate is left unassigned rather than guessed.
+final class RomTables {
+    enum Table {
+        FRONT_SPRITES(0x128),
+        BACK_SPRITES(0x12c),
+        NORMAL_PALETTES(0x130),
+        SHINY_PALETTES(0x134),
+        ICON_SPRITES(0x138),
+        SPECIES_NAMES(0x144),
+        SPECIES_DATA(0x1bc),
+        MAP_BANKS(0x55260),
+        ENCOUNTERS(0x82ebc),
+        MAP_NAMES(0xc0ca8),
+        TYPE_NAMES(0x309dc);
+
+        final int fireRedSite;
+
+        Table(int fireRedSite) {
+            this.fireRedSite = fireRedSite;
+        }
+    }
+
+    private static final Table[] TABLES = Table.values();
+    // same-shape pairs, the first of each below the second in FireRed
+    private static final Table[][] PAIRS = {
+        { Table.FRONT_SPRITES, Table.BACK_SPRITES },
+        { Table.NORMAL_PALETTES, Table.SHINY_PALETTES },
+    };
+    // how many leading entries a signature checks, enough to rule out chance matches
+    private static final int CHECKED = 32;
+    private static final int NUM_TYPES = 18;
+    private static final int NUM_MAP_NAMES = 109;
+
+    private final int[] offset = new int[TABLES.length];
+    private final int[] site = new int[TABLES.length];
+    private final boolean[] matched = new boolean[TABLES.length];
+    private PointerIndex index;
+
+    private RomTables() {
+    }
+
+    // The FireRed sites where they hold a matching table, the pointer scan for the rest.
+    static RomTables locate(RomReader rom) {
+        return locate(rom, null);
+    }
+
+    // Same with an index built by the caller, or null to build one only if a site does not match.
+    static RomTables locate(RomReader rom, PointerIndex index) {
+        RomTables tables = new RomTables();
+        tables.index = index;
+        for (Table table : TABLES) {
+            int t = table.ordinal();
+            tables.site[t] = table.fireRedSite;
+            tables.offset[t] = table.fireRedSite + 4 <= rom.size() ? RomReader.toOffset(rom.read32(table.fireRedSite)) : 0;
+            tables.matched[t] = matches(rom, table, tables.offset[t]);
+        }
+        for (Table[] pair : PAIRS) {
+            if (!tables.matched[pair[0].ordinal()] && !tables.matched[pair[1].ordinal()]) {
+                tables.searchPair(rom, pair[0], pair[1]);
+            }
+        }
+        // half of a pair is only searched for once the other half is known, its target is then taken
+        for (Table table : TABLES) {
+            Table partner = partner(table);
+            if (!tables.matched[table.ordinal()] && (partner == null || tables.matched[partner.ordinal()])) {
+                tables.search(rom, table);
+            }
+        }
+        return tables;
+    }
+
+    private static Table partner(Table table) {
+        for (Table[] pair : PAIRS) {
+            if (pair[0] == table) return pair[1];
+            if (pair[1] == table) return pair[0];
+        }
+        return null;
+    }
+
+    private void search(RomReader rom, Table table) {
+        if (index == null) {
+            index = PointerIndex.build(rom);
+        }
+        int best = -1;
+        int bestRefs = 0;
+        for (int i = 0; i < index.targetCount(); i++) {
+            int target = index.target(i);
+            if ((target & 3) != 0 || taken(target)) continue;
+            int refs = index.referenceCount(target);
+            if (refs > bestRefs && matches(rom, table, target)) {
+                best = target;
+                bestRefs = refs;
+            }
+        }
+        if (best >= 0) {
+            assign(table, best);
+        }
+    }
+
+    // Both tables of a pair, from the two most referenced candidates, lower address first.
+    private void searchPair(RomReader rom, Table first, Table second) {
+        if (index == null) {
+            index = PointerIndex.build(rom);
+        }
+        int best = -1;
+        int bestRefs = 0;
+        int next = -1;
+        int nextRefs = 0;
+        for (int i = 0; i < index.targetCount(); i++) {
+            int target = index.target(i);
+            if ((target & 3) != 0 || taken(target)) continue;
+            int refs = index.referenceCount(target);
+            if (refs > nextRefs && matches(rom, first, target)) {
+                if (refs > bestRefs) {
+                    next = best;
+                    nextRefs = bestRefs;
+                    best = target;
+                    bestRefs = refs;
+                } else {
+                    next = target;
+                    nextRefs = refs;
+                }
+            }
+        }
+        if (next < 0) return;
+        assign(first, Math.min(best, next));
+        assign(second, Math.max(best, next));
+    }
+
+    private void assign(Table table, int target) {
+        int t = table.ordinal();
+        offset[t] = target;
+        site[t] = index.referencesTo(target)[0];
+        matched[t] = true;
+    }
+
+    private boolean taken(int target) {
+        for (int t = 0; t < TABLES.length; t++) {
+            if (matched[t] && offset[t] == target) return true;
+        }
+        return false;
+    }
+
+    int offset(Table table) {
+        return offset[table.ordinal()];
+    }
+
+    // The word pointing at the table: the FireRed site, or the first reference found by the scan.
+    int site(Table table) {
+        return site[table.ordinal()];
+    }
+
+    // Whether the table's signature matched, false when it is only the site's target by default.
+    boolean matched(Table table) {
+        return matched[table.ordinal()];
+    }
+
+    // the pointer index if one had to be built, else null
+    PointerIndex index() {
+        return index;
+    }
+
+    int frontSprites() {
+        return offset(Table.FRONT_SPRITES);
+    }
+
+    int backSprites() {
+        return offset(Table.BACK_SPRITES);
+    }
+
+    int normalPalettes() {
+        return offset(Table.NORMAL_PALETTES);
+    }
+
+    int shinyPalettes() {
+        return offset(Table.SHINY_PALETTES);
+    }
+
+    int iconSprites() {
+        return offset(Table.ICON_SPRITES);
+    }
+
+    int speciesNames() {
+        return offset(Table.SPECIES_NAMES);
+    }
+
+    int speciesData() {
+        return offset(Table.SPECIES_DATA);
+    }
+
+    int mapBanks() {
+        return offset(Table.MAP_BANKS);
+    }
+
+    int encounters() {
+        return offset(Table.ENCOUNTERS);
+    }
+
+    int mapNames() {
+        return offset(Table.MAP_NAMES);
+    }
+
+    int typeNames() {
+        return offset(Table.TYPE_NAMES);
+    }
+
+    static boolean matches(RomReader rom, Table table, int offset) {
+        if (offset <= 0 || offset >= rom.size()) return false;
+        switch (table) {
+            case FRONT_SPRITES:
+            case BACK_SPRITES:
+                return compressedTable(rom, offset, SpriteBuilder.NUM_TILES * SpriteBuilder.TILE_BYTES);
+            case NORMAL_PALETTES:
+            case SHINY_PALETTES:
+                return compressedTable(rom, offset, Palette.BYTES);
+            case ICON_SPRITES:
+                return iconTable(rom, offset);
+            case SPECIES_NAMES:
+                // entry 0 is a placeholder, real names start at 1
+                return nameTable(rom, offset + 11, 11, CHECKED);
+            case TYPE_NAMES:
+                return nameTable(rom, offset, 7, NUM_TYPES);
+            case MAP_NAMES:
+                return stringPointerTable(rom, offset, NUM_MAP_NAMES);
+            case SPECIES_DATA:
+                return speciesTable(rom, offset);
+            case MAP_BANKS:
+                return bankTable(rom, offset);
+            case ENCOUNTERS:
+                return encounterTable(rom, offset);
+            default:
+                return false;
+        }
+    }
+
+    // 8-byte entries whose pointers all lead to LZ10 streams of the given size
+    private static boolean compressedTable(RomReader rom, int offset, int size) {
+        if (offset + CHECKED * 8 > rom.size()) return false;
+        for (int i = 0; i < CHECKED; i++) {
+            int pointer = rom.read32(offset + 8 * i);
+            if (!rom.isRomPointer(pointer) || rom.lz10Size(RomReader.toOffset(pointer)) != size) return false;
+        }
+        return true;
+    }
+
+    // one pointer per species to its uncompressed 2-frame icon, distinct and outside the table itself
+    private static boolean iconTable(RomReader rom, int offset) {
+        if (offset + CHECKED * 4 > rom.size()) return false;
+        int previous = -1;
+        for (int i = 0; i < CHECKED; i++) {
+            int pointer = rom.read32(offset + 4 * i);
+            if (!rom.isRomPointer(pointer)) return false;
+            int target = RomReader.toOffset(pointer);
+            if (target == previous || (target >= offset && target < offset + CHECKED * 4)
+                    || target + 0x400 > rom.size()) return false;
+            previous = target;
+        }
+        return true;
+    }
+
+    // fixed-width fields each holding a non-empty, printable, terminated string
+    private static boolean nameTable(RomReader rom, int offset, int width, int count) {
+        if (offset + width * count > rom.size()) return false;
+        for (int i = 0; i < count; i++) {
+            if (!name(rom, offset + i * width, width)) return false;
+        }
+        return true;
+    }
+
+    private static boolean stringPointerTable(RomReader rom, int offset, int count) {
+        if (offset + 4 * count > rom.size()) return false;
+        for (int i = 0; i < count; i++) {
+            int pointer = rom.read32(offset + 4 * i);
+            if (!rom.isRomPointer(pointer) || !name(rom, RomReader.toOffset(pointer), 32)) return false;
+        }
+        return true;
+    }
+
+    private static boolean name(RomReader rom, int offset, int maxLength) {
+        for (int i = 0; i < maxLength && offset + i < rom.size(); i++) {
+            int b = rom.read8(offset + i);
+            if (b == TextDecoder.END) return i > 0;
+            if (!TextDecoder.isPrintable(b)) return false;
+        }
+        return false;
+    }
+
+    // entry 0 all zero, then plausible types, growth rates and egg groups with non-zero stats
+    private static boolean speciesTable(RomReader rom, int offset) {
+        int stride = SpeciesTable.RECORD_BYTES;
+        if (offset + stride * (CHECKED + 1) > rom.size()) return false;
+        for (int i = 0; i < stride; i++) {
+            if (rom.read8(offset + i) != 0) return false;
+        }
+        for (int s = 1; s <= CHECKED; s++) {
+            int r = offset + s * stride;
+            int stats = 0;
+            for (int i = 0; i < 6; i++) {
+                stats += rom.read8(r + i);
+            }
+            if (stats == 0 || rom.read8(r + 6) >= NUM_TYPES || rom.read8(r + 7) >= NUM_TYPES
+                    || rom.read8(r + 19) > 5 || rom.read8(r + 20) > 15 || rom.read8(r + 21) > 15) return false;
+        }
+        return true;
+    }
+
+    // bank pointers up to the sentinel, each bank's first map header leading to a layout or nothing
+    private static boolean bankTable(RomReader rom, int offset) {
+        int banks = 0;
+        for (int at = offset; at + 4 <= rom.size() && banks <= 256; at += 4, banks++) {
+            int value = rom.read32(at);
+            if (value == MapIndex.SENTINEL) return banks > 0;
+            if (!rom.isRomPointer(value)) return false;
+            int bank = RomReader.toOffset(value);
+            if (bank + 4 > rom.size() || !rom.isRomPointer(rom.read32(bank))) return false;
+            int header = RomReader.toOffset(rom.read32(bank));
+            if (header + MapIndex.HEADER_BYTES > rom.size()) return false;
+            int layout = rom.read32(header);
+            if (layout != 0 && !rom.isRomPointer(layout)) return false;
+        }
+        return false;
+    }
+
+    // headers with null or valid info pointers, each info leading to slots, up to the 0xFF 0xFF end
+    private static boolean encounterTable(RomReader rom, int offset) {
+        int headers = 0;
+        for (int at = offset; at + EncounterTable.HEADER_BYTES <= rom.size(); at += EncounterTable.HEADER_BYTES, headers++) {
+            if (rom.read8(at) == 0xFF && rom.read8(at + 1) == 0xFF) return headers >= 2;
+            if (headers >= CHECKED) return true;
+            boolean any = false;
+            for (int h = 0; h < 4; h++) {
+                int info = rom.read32(at + 4 + 4 * h);
+                if (info == 0) continue;
+                if (!rom.isRomPointer(info)) return false;
+                int slots = RomReader.toOffset(info) + 4;
+                if (slots + 4 > rom.size() || !rom.isRomPointer(rom.read32(slots))) return false;
+                any = true;
+            }
+            if (!any) return false;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Table table : TABLES) {
+            int t = table.ordinal();
+            sb.append(String.format("%-16s %06X  via %06X%s%n", table, offset[t], site[t],
+                    !matched[t] ? "  (no match, FireRed default)" : site[t] != table.fireRedSite ? "  (found by scan)" : ""));
+        }
+        return sb.toString();
+    }
+}
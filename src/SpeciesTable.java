@@ -0,0 +1,241 @@
+// The base stats table, 28 bytes per species, decoded in one bulk read into one primitive column per
+// field. Queries run down whole columns, so scanning a stat over every species touches a single small
+// array instead of hundreds of objects.
+//
+// HP AT DF SP SA SD T1 T2 CR XP EY--- IT1-- IT2-- SX EC BF LU E1 E2 A1 A2 SZ CF PADDING
+// 2D 31 31 2D 41 41 0C 03 2D 40 00 01 00 00 00 00 1F 14 46 03 01 07 41 00 00 03 00 00
+// https://bulbapedia.bulbagarden.net/wiki/Pok%C3%A9mon_species_data_structure_(Generation_III)
+public class SpeciesTable {
+    static final int RECORD_BYTES = 28;
+    static final int GENDERLESS = 0xFF;
+    static final int FEMALE_ONLY = 0xFE;
+    static final int MALE_ONLY = 0x00;
+
+    public enum Stat {
+        HP, ATTACK, DEFENSE, SPEED, SP_ATTACK, SP_DEFENSE
+    }
+
+    private final int count;
+    private final byte[][] stats = new byte[Stat.values().length][];
+    private final byte[] type1;
+    private final byte[] type2;
+    private final byte[] catchRate;
+    private final byte[] baseExp;
+    private final short[] effort; // 2 bits per stat, in Stat order
+    private final short[] item1;
+    private final short[] item2;
+    private final byte[] gender; // female ratio out of 254, or one of the constants above
+    private final byte[] eggCycles;
+    private final byte[] friendship;
+    private final byte[] growthRate;
+    private final byte[] eggGroup1;
+    private final byte[] eggGroup2;
+    private final byte[] ability1;
+    private final byte[] ability2;
+    private final byte[] safariFlee;
+    private final byte[] color; // low 7 bits colour, top bit flips the sprite
+
+    private SpeciesTable(int count) {
+        this.count = count;
+        for (int s = 0; s < stats.length; s++) {
+            stats[s] = new byte[count];
+        }
+        this.type1 = new byte[count];
+        this.type2 = new byte[count];
+        this.catchRate = new byte[count];
+        this.baseExp = new byte[count];
+        this.effort = new short[count];
+        this.item1 = new short[count];
+        this.item2 = new short[count];
+        this.gender = new byte[count];
+        this.eggCycles = new byte[count];
+        this.friendship = new byte[count];
+        this.growthRate = new byte[count];
+        this.eggGroup1 = new byte[count];
+        this.eggGroup2 = new byte[count];
+        this.ability1 = new byte[count];
+        this.ability2 = new byte[count];
+        this.safariFlee = new byte[count];
+        this.color = new byte[count];
+    }
+
+    // count records from offset, e.g. rom.tables().speciesData(); species 0 is the empty entry
+    static SpeciesTable build(RomReader rom, int offset, int count) {
+        byte[] raw = new byte[count * RECORD_BYTES];
+        rom.readBytes(offset, raw);
+
+        SpeciesTable table = new SpeciesTable(count);
+        for (int i = 0, r = 0; i < count; i++, r += RECORD_BYTES) {
+            for (int s = 0; s < table.stats.length; s++) {
+                table.stats[s][i] = raw[r + s];
+            }
+            table.type1[i] = raw[r + 6];
+            table.type2[i] = raw[r + 7];
+            table.catchRate[i] = raw[r + 8];
+            table.baseExp[i] = raw[r + 9];
+            table.effort[i] = short16(raw, r + 10);
+            table.item1[i] = short16(raw, r + 12);
+            table.item2[i] = short16(raw, r + 14);
+            table.gender[i] = raw[r + 16];
+            table.eggCycles[i] = raw[r + 17];
+            table.friendship[i] = raw[r + 18];
+            table.growthRate[i] = raw[r + 19];
+            table.eggGroup1[i] = raw[r + 20];
+            table.eggGroup2[i] = raw[r + 21];
+            table.ability1[i] = raw[r + 22];
+            table.ability2[i] = raw[r + 23];
+            table.safariFlee[i] = raw[r + 24];
+            table.color[i] = raw[r + 25];
+        }
+        return table;
+    }
+
+    private static short short16(byte[] raw, int i) {
+        return (short) ((raw[i] & 0xFF) | ((raw[i + 1] & 0xFF) << 8));
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int stat(int species, Stat stat) {
+        return stats[stat.ordinal()][species] & 0xFF;
+    }
+
+    public int type1(int species) {
+        return type1[species] & 0xFF;
+    }
+
+    // the same as type1 for single-type species
+    public int type2(int species) {
+        return type2[species] & 0xFF;
+    }
+
+    public boolean singleType(int species) {
+        return type1[species] == type2[species];
+    }
+
+    public int catchRate(int species) {
+        return catchRate[species] & 0xFF;
+    }
+
+    public int baseExp(int species) {
+        return baseExp[species] & 0xFF;
+    }
+
+    // effort points given for stat when this species is defeated, 0-3
+    public int effort(int species, Stat stat) {
+        return (effort[species] >>> (2 * stat.ordinal())) & 3;
+    }
+
+    public int item1(int species) {
+        return item1[species] & 0xFFFF;
+    }
+
+    public int item2(int species) {
+        return item2[species] & 0xFFFF;
+    }
+
+    // 0 always male, 254 always female, 255 genderless, otherwise compared to the personality value
+    public int gender(int species) {
+        return gender[species] & 0xFF;
+    }
+
+    public int eggCycles(int species) {
+        return eggCycles[species] & 0xFF;
+    }
+
+    public int friendship(int species) {
+        return friendship[species] & 0xFF;
+    }
+
+    public int growthRate(int species) {
+        return growthRate[species] & 0xFF;
+    }
+
+    public int eggGroup1(int species) {
+        return eggGroup1[species] & 0xFF;
+    }
+
+    public int eggGroup2(int species) {
+        return eggGroup2[species] & 0xFF;
+    }
+
+    public int ability1(int species) {
+        return ability1[species] & 0xFF;
+    }
+
+    public int ability2(int species) {
+        return ability2[species] & 0xFF;
+    }
+
+    public int safariFlee(int species) {
+        return safariFlee[species] & 0xFF;
+    }
+
+    public int color(int species) {
+        return color[species] & 0x7F;
+    }
+
+    public boolean flipped(int species) {
+        return (color[species] & 0x80) != 0;
+    }
+
+    // Species having type as either type, in index order.
+    public int[] withType(int type) {
+        byte t = (byte) type;
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (type1[i] == t || type2[i] == t) n++;
+        }
+        int[] out = new int[n];
+        for (int i = 0, j = 0; j < n; i++) {
+            if (type1[i] == t || type2[i] == t) out[j++] = i;
+        }
+        return out;
+    }
+
+    // Base stat total of every species.
+    public int[] totals() {
+        int[] totals = new int[count];
+        for (byte[] column : stats) {
+            for (int i = 0; i < count; i++) {
+                totals[i] += column[i] & 0xFF;
+            }
+        }
+        return totals;
+    }
+
+    // stat summed over every species
+    public long sum(Stat stat) {
+        byte[] column = stats[stat.ordinal()];
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += column[i] & 0xFF;
+        }
+        return sum;
+    }
+
+    // Species ordered by stat, highest first, ties in index order. A counting sort, stats are one byte.
+    public int[] sortedBy(Stat stat) {
+        byte[] column = stats[stat.ordinal()];
+        // bucket 255 - value, counted one slot up so the prefix sum leaves each bucket's start
+        int[] starts = new int[257];
+        for (int i = 0; i < count; i++) {
+            starts[256 - (column[i] & 0xFF)]++;
+        }
+        for (int k = 1; k < starts.length; k++) {
+            starts[k] += starts[k - 1];
+        }
+
+        int[] out = new int[count];
+        for (int i = 0; i < count; i++) {
+            out[starts[255 - (column[i] & 0xFF)]++] = i;
+        }
+        return out;
+    }
+
+    public int[] sortedBySpeed() {
+        return sortedBy(Stat.SPEED);
+    }
+}
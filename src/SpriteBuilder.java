@@ -1,7 +1,5 @@
-import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.*;
-import java.io.File;
+import java.nio.file.Path;
 
 public class SpriteBuilder {
     static final int SPRITE_SIZE = 64;
@@ -12,124 +10,85 @@ public class SpriteBuilder {
     static final int BLOCK_H = TILE_H * 2;
     static final int BLOCK_W = TILE_W * 2;
 
-    static final int SPRITES_WIDE = 20;
-    static BufferedImage sheet = new BufferedImage(SPRITE_SIZE * SPRITES_WIDE, SPRITE_SIZE * (int) (Math.ceil((double) 151 / 10)), BufferedImage.TYPE_INT_ARGB);
-
-    static BufferedImage CreateTilesetImage(byte[] raw, int[][] rgb, int tilesPerRow) {
+    static BufferedImage CreateTilesetImage(byte[] raw, Palette palettes, int palette, int tilesPerRow) {
         final int numTiles = raw.length / TILE_BYTES;
         int rows = (int)Math.ceil(numTiles / (double)tilesPerRow);
         int outW = tilesPerRow * TILE_W;
         int outH = rows * TILE_H;
 
         BufferedImage img = new BufferedImage(outW, outH, BufferedImage.TYPE_INT_ARGB);
+        int[] out = TileDecoder.pixels(img);
+        int[] lut = palettes.argb();
+        int lutOffset = palettes.offset(palette);
 
         for (int t = 0; t < numTiles; t++) {
             int tileX = (t % tilesPerRow) * TILE_W;
             int tileY = (t / tilesPerRow) * TILE_H;
-            int offset = t * TILE_BYTES;
-
-            for (int y = 0; y < TILE_H; y++) {
-                for (int x = 0; x < TILE_W; x++) {
-
-                    int byteIndex = offset + (y * 4) + (x / 2);
-                    int b = raw[byteIndex] & 0xFF;
-
-                    int index4bpp;
-                    if ((x & 1) == 0) {
-                        index4bpp = b & 0x0F;       // low nibble
-                    } else {
-                        index4bpp = (b >> 4) & 0x0F; // high nibble
-                    }
-
-                    int argb = 0xFF000000 | (rgb[index4bpp][0] << 16) | (rgb[index4bpp][1] << 8) | rgb[index4bpp][2];
-                    img.setRGB(tileX + x, tileY + y, argb);
-                }
-            }
+            TileDecoder.decodeTile(raw, t * TILE_BYTES, lut, lutOffset, out, tileY * outW + tileX, outW, false, false, false);
         }
+        Metrics.add(Metrics.Counter.TILES_DECODED, numTiles);
 
         return img;
     }
 
-    static void DrawTile(BufferedImage img, int[][][] rgb, TileInfo tile, int yOffset, int xOffset) {
-        for (int y = 0; y < TILE_H; y++) {
-            for (int x = 0; x < TILE_W; x++) {
-                byte v = tile.pixels[y][x];
-                int argb = 0xFF000000 | (rgb[tile.palette][v][0] << 16) | (rgb[tile.palette][v][1] << 8) | rgb[tile.palette][v][2];
-                img.setRGB(xOffset + x, yOffset + y, argb);
-            }
+    // GBA tiles keep the left pixel of each pair in the low nibble, packed rasters (and PNG) in the high one
+    private static final byte[] SWAP_NIBBLES = new byte[256];
+    static {
+        for (int b = 0; b < 256; b++) {
+            SWAP_NIBBLES[b] = (byte) ((b << 4) | (b >>> 4));
         }
     }
 
-    static BufferedImage CreateMapImage(BlockInfo[][] blocks, int[][][] rgb) {
-        int rows = blocks.length;
-        int cols = blocks[0].length;
-
-        int outH = rows * BLOCK_H;
-        int outW = cols * BLOCK_W;
-        BufferedImage img = new BufferedImage(outW, outH, BufferedImage.TYPE_INT_ARGB);
+    // The tiles as a 4bpp packed raster (what TYPE_BYTE_BINARY uses), still palette indices. Decode once
+    // and wrap it with IndexedImage for each palette, every variant shares these pixels.
+    static WritableRaster CreateIndexedRaster(byte[] raw, int tilesPerRow) {
+        final int numTiles = raw.length / TILE_BYTES;
+        int rows = (int)Math.ceil(numTiles / (double)tilesPerRow);
+        WritableRaster raster = Raster.createPackedRaster(DataBuffer.TYPE_BYTE, tilesPerRow * TILE_W, rows * TILE_H, 1, 4, null);
+        byte[] out = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int stride = ((MultiPixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        final int rowBytes = TILE_W / 2;
 
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                // down
-                // TODO: omit the background pixels
-                DrawTile(img, rgb, blocks[r][c].getTile(TileOrder.DownTopLeft), r * BLOCK_H, c * BLOCK_W);
-                DrawTile(img, rgb, blocks[r][c].getTile(TileOrder.DownTopRight), r * BLOCK_H, c * BLOCK_W + TILE_W);
-                DrawTile(img, rgb, blocks[r][c].getTile(TileOrder.DownBottomLeft), r * BLOCK_H + TILE_H, c * BLOCK_W);
-                DrawTile(img, rgb, blocks[r][c].getTile(TileOrder.DownBottomRight), r * BLOCK_H + TILE_H, c * BLOCK_W + TILE_W);
-                // TODO: up
+        for (int t = 0; t < numTiles; t++) {
+            int tileX = (t % tilesPerRow) * rowBytes;
+            int tileY = (t / tilesPerRow) * TILE_H;
+            for (int y = 0; y < TILE_H; y++) {
+                int src = t * TILE_BYTES + y * rowBytes;
+                int dst = (tileY + y) * stride + tileX;
+                for (int i = 0; i < rowBytes; i++) {
+                    out[dst + i] = SWAP_NIBBLES[raw[src + i] & 0xFF];
+                }
             }
         }
-
-        return img;
+        Metrics.add(Metrics.Counter.TILES_DECODED, numTiles);
+        return raster;
     }
 
-    static void CreateSprite(int pokemonId, byte[] pixels, int[][] rgb) {
-        BufferedImage img = new BufferedImage(SPRITE_SIZE, SPRITE_SIZE, BufferedImage.TYPE_INT_ARGB);
-        for (int t = 0; t < NUM_TILES; t++) {
-            int tileOffset = t * 32; // 32 bytes per 4bpp tile
-
-            for (int i = 0; i < 32; i++) {
-                int b = pixels[tileOffset + i] & 0xFF;
-                int lowNibble  = b & 0x0F;
-                int highNibble = (b >> 4) & 0x0F;
-                int argb1 = 0xFF000000 | (rgb[lowNibble][0] << 16) | (rgb[lowNibble][1] << 8) | rgb[lowNibble][2];
-                int argb2 = 0xFF000000 | (rgb[highNibble][0] << 16) | (rgb[highNibble][1] << 8) | rgb[highNibble][2];;
-
-                // Make background transparent
-//                if (lowNibble == 0) {
-//                    argb1 -= 0xFF000000;
-//                }
-//                if (highNibble == 0) {
-//                    argb2 -= 0xFF000000;
-//                }
-
-                int pixelIndex = i * 2;
-                int dx = pixelIndex % 8;
-                int dy = pixelIndex / 8;
-                int tileX = (t % 8) * 8;
-                int tileY = (t / 8) * 8;
+    // The indexed raster shown with one palette: only a 16-entry colour model is new, the pixels are shared.
+    static BufferedImage IndexedImage(WritableRaster raster, Palette palettes, int palette, boolean transparent) {
+        IndexColorModel cm = new IndexColorModel(4, Palette.COLORS, palettes.argb(), palettes.offset(palette), false,
+                transparent ? 0 : -1, DataBuffer.TYPE_BYTE);
+        return new BufferedImage(cm, raster, false, null);
+    }
 
-                img.setRGB(tileX + dx,     tileY + dy, argb1);
-                img.setRGB(tileX + dx + 1, tileY + dy, argb2);
-            }
-        }
+    // 64 4bpp tiles, 8 tiles per row, into a 64x64 ARGB array
+    static void DecodeSprite(byte[] pixels, Palette palette, int[] out) {
+        DecodeSprite(pixels, palette.argb(), 0, out, 0, SPRITE_SIZE, false);
+    }
 
-        // Write img to sheet
-        int offsetX = ((Math.abs(pokemonId) - 1) * 2 * SPRITE_SIZE) % (SPRITES_WIDE * SPRITE_SIZE);
-        int offsetY = ((Math.abs(pokemonId) - 1) / 10) * SPRITE_SIZE;
-        if (pokemonId < 0) {
-            offsetX += SPRITE_SIZE;
+    // Same, into the 64x64 region of out starting at offset, where rows are stride pixels apart.
+    // With transparent set the background (colour 0) is left untouched instead of painted.
+    static void DecodeSprite(byte[] pixels, int[] lut, int lutOffset, int[] out, int offset, int stride, boolean transparent) {
+        for (int t = 0; t < NUM_TILES; t++) {
+            int tileX = (t % 8) * TILE_W;
+            int tileY = (t / 8) * TILE_H;
+            TileDecoder.decodeTile(pixels, t * TILE_BYTES, lut, lutOffset, out, offset + tileY * stride + tileX, stride,
+                    false, false, transparent);
         }
-        Graphics2D g = sheet.createGraphics();
-        g.drawImage(img, offsetX, offsetY, null);
-        g.dispose();
-
-        // Write sprite image to disk
-        //File out = new File(String.format("out/%03d.png", pokemonId));
-        //ImageIO.write(img, "png", out);
+        Metrics.add(Metrics.Counter.TILES_DECODED, NUM_TILES);
     }
 
     static void WriteImage(BufferedImage img, String pathname) throws Exception {
-        ImageIO.write(img, "png", new File(pathname));
+        PngWriter.write(img, Path.of(pathname));
     }
 }
@@ -0,0 +1,235 @@
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Two-stage sprite pipeline: decode (pointers, LZ10, palettes) then render (4bpp -> ARGB), each on its own
+// pool with a bounded queue. A full queue makes the submitting thread run the task itself, which is the
+// backpressure. Each species renders into its own four cells of the sheet (a run of one row, next to other
+// species' cells), and no two tasks write the same cell, so the output never depends on scheduling.
+//
+// A species whose sprite or palette data does not decode is left blank and counted in Sprites.failed();
+// the rest of the sheet is still drawn.
+//
+// With threads = 0 there are no pools and extractRange does both stages on the calling thread, for callers
+// such as BatchExtractor that bring their own executor.
+public class SpriteExtractor implements AutoCloseable {
+    static final int FRONT_NORMAL = 0;
+    static final int FRONT_SHINY = 1;
+    static final int BACK_NORMAL = 2;
+    static final int BACK_SHINY = 3;
+    static final int VARIANTS = 4;
+
+    private static final int SPRITE_BYTES = SpriteBuilder.NUM_TILES * SpriteBuilder.TILE_BYTES;
+
+    private final RomReader rom;
+    private final AssetCache cache;
+    private final ThreadPoolExecutor decoders;
+    private final ThreadPoolExecutor renderers;
+    private final boolean transparent;
+
+    private final int frontSprites;
+    private final int backSprites;
+    private final int normalPalettes;
+    private final int shinyPalettes;
+
+    // transparent leaves colour 0 (the sprite background) clear instead of painting it
+    public SpriteExtractor(RomReader rom, AssetCache cache, int threads, int queueCapacity, boolean transparent) {
+        this.rom = rom;
+        this.cache = cache;
+        this.transparent = transparent;
+        this.decoders = threads > 0 ? pool(Math.max(1, threads / 2), queueCapacity, "sprite-decode") : null;
+        this.renderers = threads > 0 ? pool(Math.max(1, threads - threads / 2), queueCapacity, "sprite-render") : null;
+
+        this.frontSprites = rom.tables().frontSprites();
+        this.backSprites = rom.tables().backSprites();
+        this.normalPalettes = rom.tables().normalPalettes();
+        this.shinyPalettes = rom.tables().shinyPalettes();
+    }
+
+    public SpriteExtractor(RomReader rom, AssetCache cache) {
+        this(rom, cache, Runtime.getRuntime().availableProcessors(), 32, false);
+    }
+
+    public static class Sprites {
+        final int count;
+        final SpriteSheet sheet;
+        private final byte[][] frontPixels;
+        private final AtomicInteger failed = new AtomicInteger();
+
+        Sprites(int count, SpriteSheet sheet) {
+            this.count = count;
+            this.sheet = sheet;
+            this.frontPixels = new byte[count][];
+        }
+
+        // 4bpp front sprite tiles for species pid (1-based), null if the sprite could not be decoded
+        public byte[] frontPixels(int pid) {
+            return frontPixels[pid - 1];
+        }
+
+        // species with blank cells because their sprite or palette data did not decode
+        public int failed() {
+            return failed.get();
+        }
+    }
+
+    // Output of the decode stage for one species.
+    private static final class Decoded {
+        final int id;
+        final byte[] front;
+        final byte[] back;
+        final Palette normal;
+        final Palette shiny;
+
+        Decoded(int id, byte[] front, byte[] back, Palette normal, Palette shiny) {
+            this.id = id;
+            this.front = front;
+            this.back = back;
+            this.normal = normal;
+            this.shiny = shiny;
+        }
+    }
+
+    // Sheet of every species' four variants side by side, sized for numPokemon, with nothing drawn yet.
+    public Sprites newSprites(int numPokemon, int speciesPerRow) {
+        return new Sprites(numPokemon, new SpriteSheet(numPokemon, VARIANTS, speciesPerRow, SpriteBuilder.SPRITE_SIZE));
+    }
+
+    // Both stages for species [from, to] on the calling thread. Different ranges may run concurrently.
+    public void extractRange(Sprites sprites, int from, int to) {
+        for (int id = from; id <= to; id++) {
+            Decoded decoded = decode(sprites, id);
+            if (decoded != null) {
+                render(sprites, decoded);
+            }
+        }
+    }
+
+    public Sprites extract(int numPokemon, int speciesPerRow) throws Exception {
+        Sprites sprites = newSprites(numPokemon, speciesPerRow);
+        if (decoders == null) {
+            extractRange(sprites, 1, numPokemon);
+            return sprites;
+        }
+
+        CountDownLatch done = new CountDownLatch(numPokemon);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int pid = 1; pid <= numPokemon; pid++) {
+            final int id = pid;
+            decoders.execute(() -> {
+                try {
+                    Decoded decoded = decode(sprites, id);
+                    if (decoded == null) {
+                        done.countDown();
+                        return;
+                    }
+                    renderers.execute(() -> {
+                        try {
+                            render(sprites, decoded);
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                    done.countDown();
+                }
+            });
+        }
+
+        // the latch also publishes every cell written by the workers to this thread
+        done.await();
+        if (failure.get() != null) {
+            throw new ExecutionException("Sprite extraction failed", failure.get());
+        }
+        return sprites;
+    }
+
+    // What decode reads for species id: the four table entries and the streams they point at.
+    void ranges(int id, ByteRanges.Builder out) {
+        for (int table : new int[] { frontSprites, backSprites, normalPalettes, shinyPalettes }) {
+            int entry = table + 8 * id;
+            out.add(entry, entry + 4);
+            int offset = rom.read24(entry);
+            int length = rom.lz10Length(offset);
+            out.add(offset, offset + Math.max(length, 4));
+        }
+    }
+
+    // Null if nothing can be drawn for the species: its table entries or palettes are unreadable. A sprite
+    // that does not decompress leaves just its own cells blank. Either way the species counts as failed.
+    private Decoded decode(Sprites sprites, int id) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.SPRITE_DECODE);
+        byte[] front;
+        byte[] back;
+        Palette normal;
+        Palette shiny;
+        try {
+            front = decompress(rom.read24(frontSprites + 8 * id));
+            back = decompress(rom.read24(backSprites + 8 * id));
+            // species commonly share palettes, the cache decodes each one once
+            normal = cache.readPalettes(rom, rom.read24(normalPalettes + 8 * id), 1, true);
+            shiny = cache.readPalettes(rom, rom.read24(shinyPalettes + 8 * id), 1, true);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            sprites.failed.incrementAndGet();
+            span.finish(0);
+            return null;
+        }
+        if (front == null || back == null) {
+            sprites.failed.incrementAndGet();
+        }
+        sprites.frontPixels[id - 1] = front;
+        span.finish((front != null ? SPRITE_BYTES : 0) + (back != null ? SPRITE_BYTES : 0));
+        return new Decoded(id, front, back, normal, shiny);
+    }
+
+    private void render(Sprites sprites, Decoded d) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.SPRITE_RENDER);
+        render(sprites.sheet, d.id - 1, FRONT_NORMAL, d.front, d.normal);
+        render(sprites.sheet, d.id - 1, FRONT_SHINY, d.front, d.shiny);
+        render(sprites.sheet, d.id - 1, BACK_NORMAL, d.back, d.normal);
+        render(sprites.sheet, d.id - 1, BACK_SHINY, d.back, d.shiny);
+        span.finish(0);
+    }
+
+    // Streams of several frames (Castform's holds four) are longer, the first frame is the one drawn.
+    private byte[] decompress(int offset) {
+        int size = rom.lz10Size(offset);
+        if (size < SPRITE_BYTES) {
+            return null;
+        }
+        byte[] pixels = new byte[size];
+        if (rom.decompressLZ10(offset, pixels) < 0) {
+            return null;
+        }
+        return size == SPRITE_BYTES ? pixels : Arrays.copyOf(pixels, SPRITE_BYTES);
+    }
+
+    private void render(SpriteSheet sheet, int entry, int variant, byte[] pixels, Palette palette) {
+        if (pixels != null) {
+            sheet.decodeSprite(entry, variant, pixels, palette, transparent);
+        }
+    }
+
+    private static ThreadPoolExecutor pool(int threads, int queueCapacity, String name) {
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public void close() {
+        if (decoders != null) {
+            decoders.shutdown();
+            renderers.shutdown();
+        }
+    }
+}
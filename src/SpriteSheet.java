@@ -0,0 +1,65 @@
+import java.awt.image.*;
+import java.util.Arrays;
+
+// One shared ARGB raster laid out as a grid of fixed-size cells, cellsPerEntry cells per species side by side.
+// Cells never overlap, so workers can decode into their own cells at the same time without locking;
+// whoever hands the sheet on (e.g. after a latch or join) makes the writes visible.
+public class SpriteSheet {
+    final int entries;
+    final int cellsPerEntry;
+    final int entriesPerRow;
+    final int cellSize;
+    final int width;
+    final int height;
+    private final int[] raster;
+
+    public SpriteSheet(int entries, int cellsPerEntry, int entriesPerRow, int cellSize) {
+        this.entries = entries;
+        this.cellsPerEntry = cellsPerEntry;
+        this.entriesPerRow = entriesPerRow;
+        this.cellSize = cellSize;
+        this.width = entriesPerRow * cellsPerEntry * cellSize;
+        this.height = ((entries + entriesPerRow - 1) / entriesPerRow) * cellSize;
+        this.raster = new int[width * height];
+    }
+
+    // A sheet with the cells of an earlier toImage(), e.g. a sprites.png read back to redraw a few species.
+    static SpriteSheet of(BufferedImage image, int entries, int cellsPerEntry, int entriesPerRow, int cellSize) {
+        SpriteSheet sheet = new SpriteSheet(entries, cellsPerEntry, entriesPerRow, cellSize);
+        if (image.getWidth() != sheet.width || image.getHeight() != sheet.height) {
+            throw new IllegalArgumentException(String.format("sheet is %dx%d, expected %dx%d",
+                    image.getWidth(), image.getHeight(), sheet.width, sheet.height));
+        }
+        image.getRGB(0, 0, sheet.width, sheet.height, sheet.raster, 0, sheet.width);
+        return sheet;
+    }
+
+    // Index of the top-left pixel of a cell in the raster.
+    int cellOffset(int entry, int cell) {
+        int x = ((entry % entriesPerRow) * cellsPerEntry + cell) * cellSize;
+        int y = (entry / entriesPerRow) * cellSize;
+        return y * width + x;
+    }
+
+    // Clears every cell of an entry, for a species whose sprites no longer decode.
+    void clear(int entry) {
+        for (int cell = 0; cell < cellsPerEntry; cell++) {
+            int offset = cellOffset(entry, cell);
+            for (int y = 0; y < cellSize; y++) {
+                Arrays.fill(raster, offset + y * width, offset + y * width + cellSize, 0);
+            }
+        }
+    }
+
+    void decodeSprite(int entry, int cell, byte[] pixels, Palette palette, boolean transparent) {
+        SpriteBuilder.DecodeSprite(pixels, palette.argb(), palette.offset(0), raster, cellOffset(entry, cell), width, transparent);
+    }
+
+    // Wraps the raster without copying, so call it once all cells are written.
+    BufferedImage toImage() {
+        DataBufferInt buffer = new DataBufferInt(raster, raster.length);
+        DirectColorModel cm = (DirectColorModel) ColorModel.getRGBdefault();
+        WritableRaster wr = Raster.createPackedRaster(buffer, width, height, width, cm.getMasks(), null);
+        return new BufferedImage(cm, wr, false, null);
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+// A table of decoded strings kept as one char[] plus end offsets, so a few hundred names cost two
+// arrays rather than a few hundred Strings. get() makes a String on demand, write() avoids even that.
+class StringPool {
+    private final char[] chars;
+    // string i is chars[ends[i - 1], ends[i]), ends[-1] being 0
+    private final int[] ends;
+
+    private StringPool(char[] chars, int[] ends) {
+        this.chars = chars;
+        this.ends = ends;
+    }
+
+    int count() {
+        return ends.length;
+    }
+
+    int start(int i) {
+        return i == 0 ? 0 : ends[i - 1];
+    }
+
+    int length(int i) {
+        return ends[i] - start(i);
+    }
+
+    String get(int i) {
+        return new String(chars, start(i), length(i));
+    }
+
+    void write(int i, Writer out) throws IOException {
+        out.write(chars, start(i), length(i));
+    }
+
+    static final class Builder {
+        char[] chars;
+        int length;
+        private final int[] ends;
+        private int count;
+
+        Builder(int count, int capacity) {
+            this.chars = new char[Math.max(16, capacity)];
+            this.ends = new int[count];
+        }
+
+        // room for n more chars past length
+        void ensure(int n) {
+            if (length + n > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(length + n, 2 * chars.length));
+            }
+        }
+
+        // ends the current string at end, the next one starts there
+        void add(int end) {
+            ends[count++] = end;
+            length = end;
+        }
+
+        StringPool build() {
+            return new StringPool(Arrays.copyOf(chars, length), Arrays.copyOf(ends, count));
+        }
+    }
+}
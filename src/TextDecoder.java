@@ -0,0 +1,232 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Gen III (English) text: one byte per character, 0xFF terminated. Every byte is looked up in
+// precomputed 256-entry tables, no branching per character beyond "is it a plain char". Bytes with no
+// mapping decode to U+FFFD and are tallied per value so they can be reported after a run.
+class TextDecoder {
+    static final int END = 0xFF;
+    static final char UNKNOWN = '\uFFFD';
+
+    // single-character mappings, 0 where the byte expands to a string (or nothing) instead
+    private static final char[] CHARS = new char[256];
+    // ligatures, placeholders and control codes
+    private static final String[] EXPANSIONS = new String[256];
+    // argument bytes that follow a byte, consumed without output
+    private static final byte[] ARGS = new byte[256];
+    // arguments of the 0xFC extended control codes, indexed by the code after 0xFC
+    private static final byte[] FC_ARGS = {
+        0, 1, 1, 1, 3, 1, 1, 0, 1, 0, 0, 2, 1, 1, 1, 0, 2, 1, 1, 1, 1, 0, 0, 0, 0
+    };
+    // most chars a byte can decode to, used to size output before decoding
+    private static final byte[] WIDTH = new byte[256];
+
+    static {
+        chars(0x00, " ");
+        chars(0x01, "ÀÁÂÇÈÉÊËÌ");
+        chars(0x0B, "ÎÏÒÓÔŒÙÚÛÑßàá");
+        chars(0x19, "çèéêëì");
+        chars(0x20, "îïòóôœùúûñºª");
+        chars(0x2D, "&+");
+        chars(0x35, "=;");
+        chars(0x51, "¿¡");
+        chars(0x5A, "Í%()");
+        chars(0x68, "â");
+        chars(0x6F, "í");
+        chars(0x79, "↑↓←→");
+        chars(0x85, "<>");
+        chars(0xA1, "0123456789!?.-·…“”‘’♂♀¥,×/");
+        chars(0xBB, "ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        chars(0xD5, "abcdefghijklmnopqrstuvwxyz");
+        chars(0xEF, "▶:ÄÖÜäöü");
+
+        EXPANSIONS[0x2C] = "er";
+        EXPANSIONS[0x34] = "Lv";
+        EXPANSIONS[0x53] = "PK";
+        EXPANSIONS[0x54] = "MN";
+        EXPANSIONS[0x55] = "PO";
+        EXPANSIONS[0x56] = "Ké";
+        EXPANSIONS[0x57] = "BL";
+        EXPANSIONS[0x58] = "OC";
+        EXPANSIONS[0x59] = "K";
+        EXPANSIONS[0x77] = "";
+        EXPANSIONS[0x84] = "e";
+        EXPANSIONS[0xA0] = "re";
+
+        // dynamic char, keypad icon, extra symbol: one argument each, nothing printable
+        EXPANSIONS[0xF7] = "";
+        EXPANSIONS[0xF8] = "";
+        EXPANSIONS[0xF9] = "";
+        ARGS[0xF7] = 1;
+        ARGS[0xF8] = 1;
+        ARGS[0xF9] = 1;
+        // scroll, new page and newline all break the line
+        EXPANSIONS[0xFA] = "\n";
+        EXPANSIONS[0xFB] = "\n";
+        EXPANSIONS[0xFE] = "\n";
+        // extended control code, its arguments depend on the next byte
+        EXPANSIONS[0xFC] = "";
+        // placeholder filled in by the game, the argument picks which
+        EXPANSIONS[0xFD] = "";
+        ARGS[0xFD] = 1;
+
+        for (int b = 0; b < 256; b++) {
+            WIDTH[b] = (byte) (EXPANSIONS[b] == null ? 1 : EXPANSIONS[b].length());
+        }
+        WIDTH[0xFD] = (byte) Placeholder.LONGEST;
+    }
+
+    private static void chars(int first, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            CHARS[first + i] = s.charAt(i);
+        }
+    }
+
+    // 0xFD xx, printed as {NAME} so dumps show where the game substitutes text
+    private static final class Placeholder {
+        static final String[] NAMES = new String[256];
+        static final int LONGEST;
+
+        static {
+            String[] known = { null, "PLAYER", "STR_VAR_1", "STR_VAR_2", "STR_VAR_3", "KUN", "RIVAL" };
+            int longest = 0;
+            for (int i = 0; i < NAMES.length; i++) {
+                NAMES[i] = i < known.length && known[i] != null
+                    ? "{" + known[i] + "}"
+                    : String.format("{B_%02X}", i);
+                longest = Math.max(longest, NAMES[i].length());
+            }
+            LONGEST = longest;
+        }
+    }
+
+    private final AtomicLongArray unknown = new AtomicLongArray(256);
+
+    // The string at offset, up to the terminator or limit (exclusive), whichever comes first.
+    String decode(ByteBuffer buf, int offset, int limit) {
+        char[] out = new char[capacity(buf, offset, stringEnd(buf, offset, limit))];
+        int length = decode(buf, offset, limit, out, 0);
+        return new String(out, 0, length);
+    }
+
+    // count fixed-width fields, stride bytes apart (species names are 11, type names 7)
+    StringPool decodeTable(ByteBuffer buf, int offset, int stride, int count) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.TEXT);
+        StringPool.Builder pool = new StringPool.Builder(count, count * stride);
+        for (int i = 0; i < count; i++) {
+            int start = offset + i * stride;
+            int end = Math.min(start + stride, buf.limit());
+            pool.ensure(capacity(buf, start, end));
+            pool.add(decode(buf, start, end, pool.chars, pool.length));
+        }
+        span.finish((long) count * stride);
+        return pool.build();
+    }
+
+    // count strings through a table of 4-byte ROM pointers, bad pointers give empty strings
+    StringPool decodePointerTable(ByteBuffer buf, int table, int count, int maxLength) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.TEXT);
+        long bytes = 0;
+        StringPool.Builder pool = new StringPool.Builder(count, count * 16);
+        for (int i = 0; i < count; i++) {
+            int pointer = buf.getInt(table + i * 4);
+            int start = RomReader.toOffset(pointer);
+            if (!RomReader.isPointer(pointer) || start >= buf.limit()) {
+                pool.add(pool.length);
+                continue;
+            }
+            int end = stringEnd(buf, start, (int) Math.min((long) start + maxLength, buf.limit()));
+            bytes += end - start;
+            pool.ensure(capacity(buf, start, end));
+            pool.add(decode(buf, start, end, pool.chars, pool.length));
+        }
+        span.finish(bytes);
+        return pool.build();
+    }
+
+    // Whether b is a plain character, not a control code or an unmapped byte. For recognising name tables.
+    static boolean isPrintable(int b) {
+        return CHARS[b] != 0 || b == 0;
+    }
+
+    // Offset of the terminator at or after offset, or limit if there is none before it.
+    static int stringEnd(ByteBuffer buf, int offset, int limit) {
+        int i = offset;
+        while (i < limit && (buf.get(i) & 0xFF) != END) {
+            i++;
+        }
+        return i;
+    }
+
+    // Upper bound on the chars decoded from [offset, end).
+    private static int capacity(ByteBuffer buf, int offset, int end) {
+        int n = 0;
+        for (int i = offset; i < end; i++) {
+            n += WIDTH[buf.get(i) & 0xFF];
+        }
+        return n;
+    }
+
+    // Decodes into out from pos, which must have room for capacity() chars. Returns the new end of out.
+    private int decode(ByteBuffer buf, int offset, int limit, char[] out, int pos) {
+        for (int i = offset; i < limit; i++) {
+            int b = buf.get(i) & 0xFF;
+            if (b == END) break;
+
+            char c = CHARS[b];
+            if (c != 0) {
+                out[pos++] = c;
+                continue;
+            }
+
+            String s = EXPANSIONS[b];
+            if (s == null) {
+                unknown.incrementAndGet(b);
+                out[pos++] = UNKNOWN;
+                continue;
+            }
+            s.getChars(0, s.length(), out, pos);
+            pos += s.length();
+
+            if (b == 0xFC) {
+                int code = i + 1 < limit ? buf.get(i + 1) & 0xFF : 0;
+                i += 1 + (code < FC_ARGS.length ? FC_ARGS[code] : 0);
+            } else if (b == 0xFD && i + 1 < limit) {
+                String name = Placeholder.NAMES[buf.get(i + 1) & 0xFF];
+                name.getChars(0, name.length(), out, pos);
+                pos += name.length();
+                i += ARGS[b];
+            } else {
+                i += ARGS[b];
+            }
+        }
+        return pos;
+    }
+
+    long unknown(int b) {
+        return unknown.get(b & 0xFF);
+    }
+
+    long unknownTotal() {
+        long total = 0;
+        for (int b = 0; b < 256; b++) {
+            total += unknown.get(b);
+        }
+        return total;
+    }
+
+    // "0 unknown" or "12 unknown (0x1F x10, 0x4A x2)"
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        long total = 0;
+        for (int b = 0; b < 256; b++) {
+            long n = unknown.get(b);
+            if (n == 0) continue;
+            sb.append(total == 0 ? " (" : ", ").append(String.format("0x%02X x%d", b, n));
+            total += n;
+        }
+        if (total > 0) sb.append(')');
+        return total + " unknown" + sb;
+    }
+}
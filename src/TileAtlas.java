@@ -0,0 +1,154 @@
+import java.security.MessageDigest;
+
+// A map's primary and secondary tileset merged the way the game loads them into VRAM: tiles and blocks from
+// 0x280 on belong to the secondary tileset, palettes 0-6 come from the primary and 7-12 from the secondary.
+// Block tile references and tile indexes from the map can then be used as-is.
+//
+// Tileset header: compressed(1) secondary(1) pad(2) tiles* palettes* blocks* animation* attributes*
+class TileAtlas {
+    static final int PRIMARY_TILES = 0x280;
+    static final int PRIMARY_BLOCKS = 0x280;
+    static final int MAX_BLOCKS = 0x400;
+    static final int PRIMARY_PALETTES = 7;
+    static final int MAP_PALETTES = 13;
+    static final int TILES_PER_BLOCK = BlockInfo.TILES;
+    static final int HEADER_BYTES = 24;
+
+    final int primary;
+    final int secondary;
+    final byte[] tiles;
+    final short[] blocks; // TILES_PER_BLOCK tile references per block, in TileOrder
+    final int blockCount;
+    final Palette palettes; // 16 so any palette nibble is valid, 13-15 are unused by maps and stay black
+    final byte[] digest; // SHA-256 of tiles, blocks and colours, equal for identical atlases in any ROM
+
+    private TileAtlas(int primary, int secondary, byte[] tiles, short[] blocks, Palette palettes) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.tiles = tiles;
+        this.blocks = blocks;
+        this.blockCount = blocks.length / TILES_PER_BLOCK;
+        this.palettes = palettes;
+
+        MessageDigest md = ContentStore.sha256();
+        md.update(tiles);
+        ContentStore.update(md, blocks);
+        ContentStore.update(md, palettes.argb());
+        this.digest = md.digest();
+    }
+
+    static TileAtlas load(RomReader rom, AssetCache cache, int primary, int secondary) {
+        Metrics.Span span = Metrics.start(Metrics.Stage.TILESET);
+        byte[] primaryTiles = tiles(rom, cache, primary, PRIMARY_TILES);
+        byte[] secondaryTiles = tiles(rom, cache, secondary, MAX_BLOCKS - PRIMARY_TILES);
+        byte[] tiles = new byte[PRIMARY_TILES * TileDecoder.TILE_BYTES + secondaryTiles.length];
+        System.arraycopy(primaryTiles, 0, tiles, 0, Math.min(primaryTiles.length, PRIMARY_TILES * TileDecoder.TILE_BYTES));
+        System.arraycopy(secondaryTiles, 0, tiles, PRIMARY_TILES * TileDecoder.TILE_BYTES, secondaryTiles.length);
+
+        int secondaryBlocks = secondary != 0 ? blockCount(rom, secondary, MAX_BLOCKS - PRIMARY_BLOCKS) : 0;
+        short[] blocks = new short[(PRIMARY_BLOCKS + secondaryBlocks) * TILES_PER_BLOCK];
+        readBlocks(rom, primary, blocks, 0, PRIMARY_BLOCKS);
+        readBlocks(rom, secondary, blocks, PRIMARY_BLOCKS, secondaryBlocks);
+
+        byte[] colors = new byte[16 * Palette.BYTES];
+        readPalettes(rom, primary, 0, colors, 0, PRIMARY_PALETTES);
+        readPalettes(rom, secondary, PRIMARY_PALETTES, colors, PRIMARY_PALETTES, MAP_PALETTES - PRIMARY_PALETTES);
+
+        TileAtlas atlas = new TileAtlas(primary, secondary, tiles, blocks, Palette.decode(colors, 16, Palette.Format.RGB888));
+        span.finish(tiles.length);
+        return atlas;
+    }
+
+    // Everything load reads for this tileset pair: headers, tile images, blocks and palettes.
+    static void ranges(RomReader rom, int primary, int secondary, ByteRanges.Builder out) {
+        tileRanges(rom, primary, PRIMARY_TILES, out);
+        tileRanges(rom, secondary, MAX_BLOCKS - PRIMARY_TILES, out);
+        int secondaryBlocks = secondary != 0 ? blockCount(rom, secondary, MAX_BLOCKS - PRIMARY_BLOCKS) : 0;
+        blockRanges(rom, primary, PRIMARY_BLOCKS, out);
+        blockRanges(rom, secondary, secondaryBlocks, out);
+        paletteRanges(rom, primary, 0, PRIMARY_PALETTES, out);
+        paletteRanges(rom, secondary, PRIMARY_PALETTES, MAP_PALETTES - PRIMARY_PALETTES, out);
+    }
+
+    private static void tileRanges(RomReader rom, int header, int maxTiles, ByteRanges.Builder out) {
+        if (header == 0) return;
+        out.add(header, header + HEADER_BYTES);
+        int image = pointer(rom, header + 4);
+        if (image == 0) return;
+        int length = rom.read8(header) != 0 ? rom.lz10Length(image)
+                : Math.min(maxTiles * TileDecoder.TILE_BYTES, rom.size() - image);
+        out.add(image, image + Math.max(length, 4));
+    }
+
+    private static void blockRanges(RomReader rom, int header, int count, ByteRanges.Builder out) {
+        int blocks = header != 0 ? pointer(rom, header + 12) : 0;
+        if (blocks != 0) {
+            out.add(blocks, blocks + Math.min(count, (rom.size() - blocks) / BlockInfo.BYTES) * BlockInfo.BYTES);
+        }
+    }
+
+    private static void paletteRanges(RomReader rom, int header, int first, int count, ByteRanges.Builder out) {
+        int palettes = header != 0 ? pointer(rom, header + 8) : 0;
+        if (palettes != 0) {
+            out.add(palettes + first * Palette.BYTES, palettes + (first + count) * Palette.BYTES);
+        }
+    }
+
+    short tile(int block, TileOrder order) {
+        return blocks[block * TILES_PER_BLOCK + order.ordinal()];
+    }
+
+    BlockInfo block(int block) {
+        return BlockInfo.of(blocks, block);
+    }
+
+    private static int pointer(RomReader rom, int offset) {
+        int value = rom.read32(offset);
+        return rom.isRomPointer(value) ? RomReader.toOffset(value) : 0;
+    }
+
+    private static byte[] tiles(RomReader rom, AssetCache cache, int header, int maxTiles) {
+        int image = header != 0 ? pointer(rom, header + 4) : 0;
+        if (image == 0) {
+            return new byte[0];
+        }
+        if (rom.read8(header) != 0) {
+            byte[] raw = cache.decompressLZ10(rom, image);
+            return raw != null ? raw : new byte[0];
+        }
+        byte[] raw = new byte[Math.min(maxTiles * TileDecoder.TILE_BYTES, rom.size() - image)];
+        rom.readBytes(image, raw);
+        return raw;
+    }
+
+    // The ROM stores no block count; a tileset's attribute table follows its blocks, so use the gap.
+    private static int blockCount(RomReader rom, int header, int max) {
+        int blocks = pointer(rom, header + 12);
+        int attributes = pointer(rom, header + 20);
+        if (blocks == 0) {
+            return 0;
+        }
+        if (attributes > blocks) {
+            return Math.min((attributes - blocks) / BlockInfo.BYTES, max);
+        }
+        return max;
+    }
+
+    private static void readBlocks(RomReader rom, int header, short[] out, int firstBlock, int count) {
+        int blocks = header != 0 ? pointer(rom, header + 12) : 0;
+        if (blocks == 0 || count == 0) {
+            return;
+        }
+        count = Math.min(count, (rom.size() - blocks) / BlockInfo.BYTES);
+        short[] raw = new short[count * TILES_PER_BLOCK];
+        rom.readShorts(blocks, raw);
+        System.arraycopy(raw, 0, out, firstBlock * TILES_PER_BLOCK, raw.length);
+    }
+
+    private static void readPalettes(RomReader rom, int header, int first, byte[] out, int outPalette, int count) {
+        int palettes = header != 0 ? pointer(rom, header + 8) : 0;
+        if (palettes != 0) {
+            rom.readBytes(palettes + first * Palette.BYTES, out, outPalette * Palette.BYTES, count * Palette.BYTES);
+        }
+    }
+}
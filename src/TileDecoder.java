@@ -0,0 +1,52 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+// Decodes 4bpp GBA tiles (8x8 pixels, 32 bytes, low nibble = left pixel) straight into int[] ARGB rasters,
+// such as the DataBufferInt behind a TYPE_INT_ARGB BufferedImage. Colours go through the 16 packed ARGB
+// entries of a Palette starting at lutOffset, not per-pixel conversion.
+class TileDecoder {
+    static final int TILE_BYTES = 32;
+    static final int TILE_SIZE = 8;
+
+    private TileDecoder() {
+    }
+
+    // Tile at src[srcOffset, srcOffset + 32) into dst with its top-left pixel at dstOffset, rows stride apart.
+    // With transparent set, colour 0 leaves the destination pixel as it was, which is how layers stack.
+    // A tile that runs past the end of src is skipped.
+    static void decodeTile(byte[] src, int srcOffset, int[] lut, int lutOffset, int[] dst, int dstOffset, int stride,
+                           boolean hFlip, boolean vFlip, boolean transparent) {
+        if (srcOffset < 0 || srcOffset + TILE_BYTES > src.length) {
+            return;
+        }
+
+        for (int y = 0; y < TILE_SIZE; y++) {
+            int s = srcOffset + (vFlip ? TILE_SIZE - 1 - y : y) * 4;
+            int d = dstOffset + y * stride;
+
+            if (!hFlip && !transparent) {
+                for (int i = 0; i < 4; i++) {
+                    int b = src[s + i];
+                    dst[d++] = lut[lutOffset + (b & 0xF)];
+                    dst[d++] = lut[lutOffset + ((b >>> 4) & 0xF)];
+                }
+                continue;
+            }
+
+            for (int i = 0; i < 4; i++) {
+                int b = src[s + i];
+                int lo = b & 0xF;
+                int hi = (b >>> 4) & 0xF;
+                int x = hFlip ? TILE_SIZE - 1 - 2 * i : 2 * i;
+                int step = hFlip ? -1 : 1;
+                if (!transparent || lo != 0) dst[d + x] = lut[lutOffset + lo];
+                if (!transparent || hi != 0) dst[d + x + step] = lut[lutOffset + hi];
+            }
+        }
+    }
+
+    // Backing array of a TYPE_INT_ARGB image, writes show up in the image directly.
+    static int[] pixels(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+}
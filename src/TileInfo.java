@@ -1,21 +1,49 @@
+// A 16-bit tile reference: palette (4 bits), vFlip, hFlip, tile index (10 bits).
+// Instances are immutable flyweights, one per distinct value, so holding millions of references costs
+// nothing; code working on raw shorts can use the static decoders instead.
 class TileInfo {
-    int palette;
-    boolean vFlip;
-    boolean hFlip;
-    int tileIndex;
-    byte[] pixels;
-
-    public TileInfo(int value, byte[] pixels) {
-        this.palette   = (value >> 12) & 0xF;
-        this.vFlip = ((value >> 11) & 1) == 1;
-        this.hFlip = ((value >> 10) & 1) == 1;
-        this.tileIndex =  value & 0x3FF; // lowest 10 bits
-        this.pixels = pixels; // 32 bytes. 4 bits per pixel. to make an 8x8 image.
+    private static final TileInfo[] FLYWEIGHTS = new TileInfo[1 << 16];
+
+    final int palette;
+    final boolean vFlip;
+    final boolean hFlip;
+    final int tileIndex;
+
+    private TileInfo(int value) {
+        this.palette   = palette(value);
+        this.vFlip = vFlip(value);
+        this.hFlip = hFlip(value);
+        this.tileIndex = tileIndex(value);
+    }
+
+    static TileInfo of(int value) {
+        value &= 0xFFFF;
+        TileInfo tile = FLYWEIGHTS[value];
+        if (tile == null) {
+            // racing threads may each create one, all fields are final so either copy is safe to share
+            tile = new TileInfo(value);
+            FLYWEIGHTS[value] = tile;
+        }
+        return tile;
+    }
+
+    static int palette(int value) {
+        return (value >> 12) & 0xF;
+    }
+
+    static boolean vFlip(int value) {
+        return ((value >> 11) & 1) == 1;
+    }
+
+    static boolean hFlip(int value) {
+        return ((value >> 10) & 1) == 1;
+    }
+
+    static int tileIndex(int value) {
+        return value & 0x3FF; // lowest 10 bits
     }
 
     public String toString() {
         return String.format("%03Xp%X", this.tileIndex, this.palette);
     }
 }
-
-
@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+// Streams of 4 KB, each stored twice so the second copy is served by the first one's content entry.
+// A content entry is charged 4096 decoded plus 4612 compressed bytes, so 64 KB holds seven.
+class AssetCacheTest {
+    private static final int STREAMS = 20;
+    private static final int DECODED = 4096;
+    private static final int SPACING = 0x1400;
+    private static final long MAX_BYTES = 64 << 10;
+
+    private final RomReader rom;
+
+    AssetCacheTest() {
+        byte[] image = new byte[2 * STREAMS * SPACING];
+        Random random = new Random(21);
+        for (int i = 0; i < STREAMS; i++) {
+            byte[] data = new byte[DECODED];
+            random.nextBytes(data);
+            byte[] stream = TestRom.lz10(data);
+            System.arraycopy(stream, 0, image, first(i), stream.length);
+            System.arraycopy(stream, 0, image, second(i), stream.length);
+        }
+        rom = new RomReader("streams", image);
+    }
+
+    private static int first(int i) {
+        return i * SPACING;
+    }
+
+    private static int second(int i) {
+        return (STREAMS + i) * SPACING;
+    }
+
+    @Test
+    void aliasesDoNotKeepEvictedValues() {
+        AssetCache cache = new AssetCache(MAX_BYTES, false);
+        // each new stream, then every earlier one through its second copy: the offset keys stay recent
+        // while far more content than fits has gone through the cache
+        for (int i = 0; i < STREAMS; i++) {
+            cache.decompressLZ10(rom, first(i));
+            for (int j = 0; j <= i; j++) {
+                cache.decompressLZ10(rom, second(j));
+            }
+            assertTrue(cache.bytes() <= MAX_BYTES, cache.toString());
+        }
+
+        // every value still served without decoding was in the cache at once, so they must fit maxBytes;
+        // most recent first, as a miss evicts the eldest
+        Map<byte[], Boolean> held = new IdentityHashMap<>();
+        long heldBytes = 0;
+        for (int i = STREAMS - 1; i >= 0; i--) {
+            long hits = cache.hits();
+            byte[] value = cache.decompressLZ10(rom, second(i));
+            if (cache.hits() > hits && held.put(value, true) == null) {
+                heldBytes += value.length;
+            }
+        }
+        assertTrue(!held.isEmpty() && heldBytes <= MAX_BYTES, heldBytes + " bytes held, " + cache);
+        assertTrue(cache.bytes() <= MAX_BYTES, cache.toString());
+    }
+
+    @Test
+    void aHitThroughAnAliasKeepsItsContent() {
+        // room for two content entries
+        AssetCache cache = new AssetCache(2 * (DECODED + 4612) + 3 * 64, false);
+        byte[] a = cache.decompressLZ10(rom, first(0));
+        cache.decompressLZ10(rom, first(1));
+        assertSame(a, cache.decompressLZ10(rom, first(0)));
+        // evicts stream 1, not stream 0 which was just used
+        cache.decompressLZ10(rom, first(2));
+        assertSame(a, cache.decompressLZ10(rom, second(0)));
+        assertEquals(1, cache.shared());
+        long misses = cache.misses();
+        cache.decompressLZ10(rom, first(1));
+        assertEquals(misses + 1, cache.misses());
+        assertEquals(1, cache.shared());
+    }
+}
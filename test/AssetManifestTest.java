@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AssetManifestTest {
+    private final TestRom image = new TestRom(3);
+
+    @Test
+    void writtenManifestReadsBack(@TempDir Path dir) throws IOException {
+        RomReader rom = image.reader("a");
+        AssetManifest manifest = build(rom);
+        manifest.write(rom, dir.resolve("manifest.tsv"));
+        AssetManifest read = AssetManifest.read(dir.resolve("manifest.tsv"));
+
+        assertEquals(manifest.romCrc, read.romCrc);
+        assertEquals(manifest.romSize, read.romSize);
+        assertEquals(manifest.assets(), read.assets());
+        for (String asset : manifest.assets()) {
+            assertEquals(manifest.ranges(asset), read.ranges(asset), asset);
+            assertEquals(manifest.crc(asset), read.crc(asset), asset);
+        }
+    }
+
+    @Test
+    void aSpriteByteMarksOnlyTheSpeciesDrawnFromIt() {
+        RomReader rom = image.reader("a");
+        // species 5's front sprite, also the back sprite of species 36 in TestRom's reversed back table
+        int sprite = RomReader.toOffset(rom.read32(rom.tables().frontSprites() + 8 * 5));
+        assertEquals(Set.of(AssetManifest.sprite(5), AssetManifest.sprite(36)), stale(rom, sprite + 100));
+    }
+
+    @Test
+    void aTablePointerMarksEverythingReadThroughIt() {
+        RomReader rom = image.reader("a");
+        Set<String> stale = stale(rom, RomTables.Table.SHINY_PALETTES.fireRedSite);
+        assertEquals(TestRom.SPECIES, stale.size());
+        assertTrue(stale.contains(AssetManifest.sprite(1)));
+        assertTrue(stale.contains(AssetManifest.sprite(TestRom.SPECIES)));
+    }
+
+    @Test
+    void hashesFollowTheBytes() {
+        RomReader before = image.reader("a");
+        int stat = image.speciesData + 7 * SpeciesTable.RECORD_BYTES;
+        assertEquals(Set.of(AssetManifest.SPECIES), stale(before, stat));
+
+        image.image[stat]++;
+        RomReader after = image.reader("b");
+        AssetManifest a = build(before);
+        AssetManifest b = build(after);
+        assertNotEquals(a.hash(before, AssetManifest.SPECIES), b.hash(after, AssetManifest.SPECIES));
+        assertEquals(a.hash(before, AssetManifest.STRINGS), b.hash(after, AssetManifest.STRINGS));
+        assertEquals(a.hash(before, AssetManifest.sprite(1)), b.hash(after, AssetManifest.sprite(1)));
+    }
+
+    private static AssetManifest build(RomReader rom) {
+        MapIndex maps = MapIndex.build(rom, rom.tables().mapBanks());
+        return AssetManifest.build(rom, maps, rom.tables().mapBanks(), TestRom.SPECIES);
+    }
+
+    // assets whose ranges cover the byte at offset
+    private static Set<String> stale(RomReader rom, int offset) {
+        AssetManifest manifest = build(rom);
+        Set<String> stale = new TreeSet<>();
+        for (String asset : manifest.assets()) {
+            if (manifest.ranges(asset).intersects(offset, offset + 1)) stale.add(asset);
+        }
+        return stale;
+    }
+}
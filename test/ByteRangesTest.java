@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ByteRangesTest {
+    @Test
+    void buildSortsAndMergesOverlappingAndTouchingRanges() {
+        ByteRanges r = new ByteRanges.Builder()
+                .add(0x40, 0x50).add(0x10, 0x20).add(0x18, 0x30).add(0x30, 0x38).add(0x60, 0x60).add(0x70, 0x6f)
+                .build();
+        assertEquals("10-38 40-50", r.toString());
+        assertEquals(2, r.count());
+        assertEquals(0x28 + 0x10, r.bytes());
+    }
+
+    @Test
+    void containedRangesDisappear() {
+        ByteRanges r = new ByteRanges.Builder().add(0, 100).add(10, 20).add(50, 100).build();
+        assertEquals("0-64", r.toString());
+    }
+
+    @Test
+    void nothingAddedIsEmpty() {
+        assertSame(ByteRanges.EMPTY, new ByteRanges.Builder().add(5, 5).build());
+        assertFalse(ByteRanges.EMPTY.intersects(0, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void intersectsIsHalfOpen() {
+        ByteRanges r = new ByteRanges.Builder().add(0x10, 0x20).add(0x30, 0x40).build();
+        assertFalse(r.intersects(0x00, 0x10));
+        assertTrue(r.intersects(0x00, 0x11));
+        assertTrue(r.intersects(0x1f, 0x30));
+        assertFalse(r.intersects(0x20, 0x30));
+        assertTrue(r.intersects(0x25, 0x35));
+        assertFalse(r.intersects(0x40, 0x50));
+        assertFalse(r.intersects(0x18, 0x18));
+    }
+
+    @Test
+    void intersectsAnotherSet() {
+        ByteRanges a = new ByteRanges.Builder().add(0x10, 0x20).add(0x30, 0x40).add(0x50, 0x60).build();
+        ByteRanges touching = new ByteRanges.Builder().add(0x20, 0x30).add(0x40, 0x50).build();
+        ByteRanges inside = new ByteRanges.Builder().add(0, 4).add(0x58, 0x59).build();
+        assertFalse(a.intersects(touching));
+        assertFalse(touching.intersects(a));
+        assertTrue(a.intersects(inside));
+        assertTrue(inside.intersects(a));
+        assertFalse(a.intersects(ByteRanges.EMPTY));
+    }
+
+    @Test
+    void parseReadsBackToString() {
+        ByteRanges r = new ByteRanges.Builder().add(0x128, 0x12c).add(0x1ffff00, 0x2000000).add(0, 1).build();
+        assertEquals(r, ByteRanges.parse(r.toString()));
+        assertEquals(r.hashCode(), ByteRanges.parse(r.toString()).hashCode());
+        assertSame(ByteRanges.EMPTY, ByteRanges.parse(""));
+    }
+}
@@ -0,0 +1,161 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Every file is read back twice: chunk by chunk, with each CRC checked and the IDAT data inflated as one
+// zlib stream (Inflater checks the combined Adler-32), and through ImageIO, pixel by pixel.
+class PngWriterTest {
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(11);
+
+    @Test
+    void rgbSplitIntoSeveralPieces() throws IOException {
+        // more than 256 colours, all opaque: RGB, 1801-byte lines so 5 deflate pieces
+        BufferedImage img = argb(600, 600, (x, y) -> 0xFF000000 | x * 977 + y * 131 + random.nextInt(4));
+        assertTrue(roundTrip(img) > 2);
+    }
+
+    @Test
+    void rgbaSplitIntoSeveralPieces() throws IOException {
+        BufferedImage img = argb(500, 500, (x, y) -> (x + y) << 24 | x * 977 + y * 131);
+        assertTrue(roundTrip(img) > 2);
+    }
+
+    @Test
+    void paletteWithTransparencySplitIntoSeveralPieces() throws IOException {
+        // 12 colours, two of them transparent: a 4-bit palette with tRNS, 1001-byte lines
+        int[] colors = new int[12];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = (i < 2 ? 0x40000000 * i : 0xFF000000) | random.nextInt(1 << 24);
+        }
+        BufferedImage img = argb(2000, 1200, (x, y) -> colors[(x / 7 + y / 5 + random.nextInt(2)) % colors.length]);
+        assertTrue(roundTrip(img) > 2);
+    }
+
+    @Test
+    void indexedTilesetSplitIntoSeveralPieces() throws IOException {
+        // what the tileset dumps write: a 4bpp packed raster under a 16-colour model, written as is
+        byte[] tiles = new byte[SpriteBuilder.TILE_BYTES * 16 * 2000];
+        random.nextBytes(tiles);
+        byte[] bgr555 = new byte[Palette.BYTES];
+        random.nextBytes(bgr555);
+        Palette palette = Palette.decode(bgr555, 1, Palette.Format.RGB888);
+        BufferedImage img = SpriteBuilder.IndexedImage(SpriteBuilder.CreateIndexedRaster(tiles, 16), palette, 0, true);
+        assertTrue(img.getWidth() * img.getHeight() / 2 > PngWriter.CHUNK_BYTES);
+        assertTrue(roundTrip(img) > 2);
+    }
+
+    @Test
+    void smallImageInOnePiece() throws IOException {
+        BufferedImage img = argb(64, 64, (x, y) -> 0xFF000000 | random.nextInt(1 << 24));
+        assertEquals(1, roundTrip(img));
+    }
+
+    @Test
+    void adlerCombineMatchesOneAdlerOverBoth() {
+        byte[] bytes = new byte[200_000];
+        random.nextBytes(bytes);
+        for (int split : new int[] { 0, 1, 65520, 65521, 65522, 100_000, bytes.length }) {
+            assertEquals(adler(bytes, 0, bytes.length), PngWriter.adler32Combine(adler(bytes, 0, split),
+                    adler(bytes, split, bytes.length - split), bytes.length - split), "split at " + split);
+        }
+    }
+
+    private interface Pixel {
+        int argb(int x, int y);
+    }
+
+    private static BufferedImage argb(int width, int height, Pixel pixel) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, pixel.argb(x, y));
+            }
+        }
+        return img;
+    }
+
+    // Writes img and checks it reads back the same, returns how many deflate pieces it was written in.
+    private int roundTrip(BufferedImage img) throws IOException {
+        Path file = dir.resolve("image.png");
+        PngWriter.write(img, file);
+
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        in.position(8);
+        ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+        int idats = 0;
+        while (in.hasRemaining()) {
+            int length = in.getInt();
+            byte[] type = new byte[4];
+            in.get(type);
+            byte[] data = new byte[length];
+            in.get(data);
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(data);
+            String name = new String(type, StandardCharsets.US_ASCII);
+            assertEquals((int) crc.getValue(), in.getInt(), name + " CRC");
+            if (name.equals("IDAT")) {
+                zlib.write(data, 0, length);
+                idats++;
+            }
+        }
+        inflate(zlib.toByteArray());
+
+        BufferedImage read = ImageIO.read(file.toFile());
+        assertEquals(img.getWidth(), read.getWidth());
+        assertEquals(img.getHeight(), read.getHeight());
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                if (img.getRGB(x, y) != read.getRGB(x, y)) {
+                    assertEquals(Integer.toHexString(img.getRGB(x, y)), Integer.toHexString(read.getRGB(x, y)),
+                            "pixel " + x + "," + y);
+                }
+            }
+        }
+        // the zlib header and the Adler-32 trailer have IDAT chunks of their own
+        return idats - 2;
+    }
+
+    private static void inflate(byte[] zlib) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(zlib);
+            byte[] out = new byte[1 << 16];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(out);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new AssertionError("zlib stream ends early");
+                }
+            }
+            assertEquals(0, inflater.getRemaining(), "bytes after the zlib stream");
+        } catch (DataFormatException e) {
+            throw new AssertionError("bad zlib stream: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static long adler(byte[] bytes, int offset, int length) {
+        Adler32 adler = new Adler32();
+        adler.update(bytes, offset, length);
+        return adler.getValue();
+    }
+}
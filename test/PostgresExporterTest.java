@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Runs against a real server and is skipped unless one is given:
+//   mvn test -Dpg.url=jdbc:postgresql://localhost/pokemon_test?user=postgres
+// Rows are written under a ROM name of their own and deleted afterwards.
+class PostgresExporterTest {
+    private static final String URL = System.getProperty("pg.url");
+    private static final String ROM = "postgres-exporter-test.gba";
+    private static final String[] TABLES = { "species", "map_header", "encounter", "palette", "name", "rom" };
+
+    @BeforeEach
+    void requireServer() throws Exception {
+        assumeTrue(URL != null && !URL.isEmpty(), "no -Dpg.url given");
+        clean();
+    }
+
+    @AfterEach
+    void clean() throws Exception {
+        if (URL == null || URL.isEmpty()) return;
+        try (Connection c = DriverManager.getConnection(URL)) {
+            if (!c.getMetaData().getTables(null, null, "rom", null).next()) return;
+            for (String table : TABLES) {
+                try (PreparedStatement ps = c.prepareStatement("DELETE FROM " + table + " WHERE rom = ?")) {
+                    ps.setString(1, ROM);
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+
+    @Test
+    void exportingTheSameRomAgainChangesNothing() throws Exception {
+        TestRom image = new TestRom(1);
+        PostgresExporter.Report first = export(image);
+        assertTrue(first.changed() > 0, first.toString());
+        assertEquals(0, first.deleted(), first.toString());
+
+        // again on a new connection, then twice more on one connection
+        assertUnchanged(export(image));
+        try (PostgresExporter exporter = new PostgresExporter(URL, new AssetCache(1 << 20, false))) {
+            RomReader rom = image.reader(ROM);
+            assertUnchanged(exporter.export(ROM, rom, map(image), TestRom.SPECIES));
+            assertUnchanged(exporter.export(ROM, rom, map(image), TestRom.SPECIES));
+        }
+        assertEquals(first.changed(), count("species") + count("map_header") + count("encounter")
+                + count("palette") + count("name"));
+    }
+
+    @Test
+    void anEditedRomUpdatesAndDeletesOnlyWhatChanged() throws Exception {
+        TestRom image = new TestRom(2);
+        export(image);
+        long encounters = count("encounter");
+
+        // one stat of species 3, and the encounter list cut after its first header (12 land slots)
+        image.image[image.speciesData + 3 * SpeciesTable.RECORD_BYTES]++;
+        image.image[image.encounters + EncounterTable.HEADER_BYTES] = (byte) 0xFF;
+        image.image[image.encounters + EncounterTable.HEADER_BYTES + 1] = (byte) 0xFF;
+        PostgresExporter.Report report = export(image);
+
+        assertEquals(1, report.changed(), report.toString());
+        assertEquals(encounters - EncounterTable.Habitat.LAND.slots, report.deleted(), report.toString());
+        assertEquals(EncounterTable.Habitat.LAND.slots, count("encounter"));
+    }
+
+    private static PostgresExporter.Report export(TestRom image) throws Exception {
+        try (PostgresExporter exporter = new PostgresExporter(URL, new AssetCache(1 << 20, false))) {
+            exporter.createSchema();
+            return exporter.export(ROM, image.reader(ROM), map(image), TestRom.SPECIES);
+        }
+    }
+
+    private static void assertUnchanged(PostgresExporter.Report report) {
+        assertEquals(0, report.changed(), report.toString());
+        assertEquals(0, report.deleted(), report.toString());
+    }
+
+    private static MapIndex map(TestRom image) {
+        RomReader rom = image.reader(ROM);
+        return MapIndex.build(rom, rom.tables().mapBanks());
+    }
+
+    private static long count(String table) throws Exception {
+        try (Connection c = DriverManager.getConnection(URL);
+             PreparedStatement ps = c.prepareStatement("SELECT count(*) FROM " + table + " WHERE rom = ?")) {
+            ps.setString(1, ROM);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Small patches written byte by byte, against a 300 byte base so UPS offsets need two-byte varints.
+class RomPatchTest {
+    private static final byte[] BASE = new byte[300];
+
+    static {
+        new Random(7).nextBytes(BASE);
+    }
+
+    private static RomReader base() {
+        return new RomReader("base", BASE.clone());
+    }
+
+    @Test
+    void ipsRecordsAndRleRuns() throws IOException {
+        byte[] patch = ips(record(4, 1, 2, 3), rle(20, 5, 0x7f), "EOF");
+        RomPatch p = RomPatch.ips(base(), patch);
+
+        byte[] expected = BASE.clone();
+        expected[4] = 1;
+        expected[5] = 2;
+        expected[6] = 3;
+        Arrays.fill(expected, 20, 25, (byte) 0x7f);
+        assertArrayEquals(expected, p.image);
+        assertEquals("4-7 14-19", p.changed.toString());
+    }
+
+    @Test
+    void ipsRecordPastTheEndGrowsTheImage() throws IOException {
+        RomPatch p = RomPatch.ips(base(), ips(record(310, 9, 9), "EOF"));
+        assertEquals(312, p.image.length);
+        assertEquals(9, p.image[311]);
+        assertEquals(0, p.image[305]);
+        // the gap counts as changed too, it is new
+        assertEquals("12c-138", p.changed.toString());
+    }
+
+    @Test
+    void ipsTruncationAfterEof() throws IOException {
+        RomPatch p = RomPatch.ips(base(), ips(record(0, 5), "EOF", u24(256)));
+        assertEquals(256, p.image.length);
+        assertEquals(5, p.image[0]);
+        assertEquals("0-1 100-12c", p.changed.toString());
+    }
+
+    @Test
+    void ipsWithoutEofOrCutShortIsRejected() {
+        IOException noEof = assertThrows(IOException.class, () -> RomPatch.ips(base(), ips(record(4, 1))));
+        assertTrue(noEof.getMessage().contains("EOF"), noEof.getMessage());
+        byte[] cut = ips(record(4, 1, 2, 3), "EOF");
+        assertThrows(IOException.class, () -> RomPatch.ips(base(), Arrays.copyOf(cut, 5 + 3 + 2 + 1)));
+        byte[] cutRle = ips(rle(20, 5, 0x7f), "EOF");
+        assertThrows(IOException.class, () -> RomPatch.ips(base(), Arrays.copyOf(cutRle, 5 + 3 + 2 + 2)));
+    }
+
+    @Test
+    void upsAppliesHunksAndResizes() throws IOException {
+        byte[] target = Arrays.copyOf(BASE, 320);
+        target[3] ^= 1;
+        target[4] ^= 0x40;
+        target[200] ^= (byte) 0xff;
+        target[310] = 1;
+        RomPatch p = RomPatch.ups(base(), ups(BASE, target));
+        assertArrayEquals(target, p.image);
+        assertEquals("3-5 c8-c9 12c-140", p.changed.toString());
+
+        byte[] shorter = Arrays.copyOf(BASE, 100);
+        shorter[99] ^= 2;
+        RomPatch q = RomPatch.ups(base(), ups(BASE, shorter));
+        assertArrayEquals(shorter, q.image);
+        assertEquals("63-12c", q.changed.toString());
+    }
+
+    @Test
+    void upsChecksAllThreeCrcs() {
+        byte[] target = BASE.clone();
+        target[10] ^= 1;
+        byte[] patch = ups(BASE, target);
+
+        byte[] corrupt = patch.clone();
+        corrupt[corrupt.length - 12] ^= 1;
+        assertMessage("patch CRC", corrupt);
+
+        byte[] otherBase = BASE.clone();
+        otherBase[0] ^= 1;
+        assertMessage("different base ROM", ups(otherBase, target));
+
+        byte[] wrongOutput = patch.clone();
+        wrongOutput[wrongOutput.length - 8] ^= 1;
+        sign(wrongOutput);
+        assertMessage("output CRC", wrongOutput);
+
+        assertMessage("300 byte", ups(new byte[301], new byte[301]));
+    }
+
+    @Test
+    void upsVarintsRoundTrip() throws IOException {
+        // skips of 0, 127, 128 and 16512: the largest one-byte varint, then the smallest of two and three bytes
+        byte[] base = new byte[20000];
+        byte[] target = base.clone();
+        int[] at = { 0, 128, 257, 16770 };
+        for (int i : at) {
+            target[i] = 1;
+        }
+        RomPatch p = RomPatch.ups(new RomReader("zeros", base), ups(base, target));
+        assertArrayEquals(target, p.image);
+        assertEquals("0-1 80-81 101-102 4182-4183", p.changed.toString());
+    }
+
+    @Test
+    void diffFindsChangedBytesAndTheTail() {
+        byte[] other = Arrays.copyOf(BASE, 5000);
+        other[0] ^= 1;
+        other[1] ^= 1;
+        other[150] ^= 1;
+        assertEquals("0-2 96-97 12c-1388", RomPatch.diff(base(), new RomReader("other", other)).toString());
+        assertEquals(ByteRanges.EMPTY, RomPatch.diff(base(), base()));
+    }
+
+    @Test
+    void applyTellsPatchesApartByContents(@TempDir Path dir) throws IOException {
+        Path ips = Files.write(dir.resolve("a.ups"), ips(record(0, 5), "EOF"));
+        Path rom = Files.write(dir.resolve("b.gba"), BASE);
+        assertTrue(RomPatch.isPatch(ips));
+        assertFalse(RomPatch.isPatch(rom));
+        assertEquals(5, RomPatch.apply(base(), ips).image[0]);
+        assertThrows(IOException.class, () -> RomPatch.apply(base(), rom));
+    }
+
+    private static void assertMessage(String expected, byte[] patch) {
+        IOException e = assertThrows(IOException.class, () -> RomPatch.ups(base(), patch));
+        assertTrue(e.getMessage().contains(expected), e.getMessage());
+    }
+
+    // "PATCH" and then each part: byte arrays as they are, strings in ASCII
+    private static byte[] ips(Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("PATCH".getBytes(StandardCharsets.US_ASCII));
+        for (Object part : parts) {
+            out.writeBytes(part instanceof String ? ((String) part).getBytes(StandardCharsets.US_ASCII) : (byte[]) part);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] record(int offset, int... data) {
+        byte[] r = new byte[5 + data.length];
+        System.arraycopy(u24(offset), 0, r, 0, 3);
+        r[3] = (byte) (data.length >> 8);
+        r[4] = (byte) data.length;
+        for (int i = 0; i < data.length; i++) {
+            r[5 + i] = (byte) data[i];
+        }
+        return r;
+    }
+
+    private static byte[] rle(int offset, int count, int value) {
+        byte[] u = u24(offset);
+        return new byte[] { u[0], u[1], u[2], 0, 0, (byte) (count >> 8), (byte) count, (byte) value };
+    }
+
+    private static byte[] u24(int value) {
+        return new byte[] { (byte) (value >> 16), (byte) (value >> 8), (byte) value };
+    }
+
+    // The patch from input to output: XOR hunks between unchanged bytes, beyond input's end XOR with zero.
+    private static byte[] ups(byte[] input, byte[] output) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("UPS1".getBytes(StandardCharsets.US_ASCII));
+        varint(out, input.length);
+        varint(out, output.length);
+        int length = Math.max(input.length, output.length);
+        int last = 0;
+        for (int i = 0; i < length; i++) {
+            if (xor(input, output, i) == 0) continue;
+            varint(out, i - last);
+            while (i < length && xor(input, output, i) != 0) {
+                out.write(xor(input, output, i++));
+            }
+            out.write(0);
+            last = i + 1;
+        }
+        byte[] body = out.toByteArray();
+        byte[] patch = Arrays.copyOf(body, body.length + 12);
+        put32(patch, body.length, crc32(input, input.length));
+        put32(patch, body.length + 4, crc32(output, output.length));
+        sign(patch);
+        return patch;
+    }
+
+    private static int xor(byte[] a, byte[] b, int i) {
+        return ((i < a.length ? a[i] : 0) ^ (i < b.length ? b[i] : 0)) & 0xFF;
+    }
+
+    private static void varint(ByteArrayOutputStream out, long value) {
+        while (true) {
+            int x = (int) (value & 0x7f);
+            value >>= 7;
+            if (value == 0) {
+                out.write(0x80 | x);
+                return;
+            }
+            out.write(x);
+            value--;
+        }
+    }
+
+    // the patch CRC over everything before it
+    private static void sign(byte[] patch) {
+        put32(patch, patch.length - 4, crc32(patch, patch.length - 4));
+    }
+
+    private static int crc32(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static void put32(byte[] into, int at, int value) {
+        TestRom.put32(into, at, value);
+    }
+}
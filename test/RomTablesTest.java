@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+// Hacks that move the sprite tables, made from TestRom by clearing pointer sites and adding references
+// elsewhere, the way code literal pools would point at a moved table.
+class RomTablesTest {
+    private static final int POOL = 0x1000; // unused bytes below TestRom's tables
+
+    private final TestRom image = new TestRom(4);
+    private final int front = site(RomTables.Table.FRONT_SPRITES);
+    private final int back = site(RomTables.Table.BACK_SPRITES);
+    private int pool = POOL;
+
+    @Test
+    void matchingSitesNeedNoScan() {
+        RomTables tables = RomTables.locate(image.reader("a"));
+        assertNull(tables.index());
+        for (RomTables.Table table : RomTables.Table.values()) {
+            assertTrue(tables.matched(table), table.toString());
+            assertEquals(table.fireRedSite, tables.site(table));
+        }
+        assertEquals(front, tables.frontSprites());
+        assertEquals(back, tables.backSprites());
+    }
+
+    @Test
+    void aMatchingSiteKeepsItsTableWhenTheOtherIsMoved() {
+        clear(RomTables.Table.FRONT_SPRITES);
+        reference(front, 1);
+        // the back table is referenced more often, but its site matches so the scan cannot take it
+        reference(back, 3);
+        RomTables tables = RomTables.locate(image.reader("a"));
+        assertEquals(front, tables.frontSprites());
+        assertEquals(POOL, tables.site(RomTables.Table.FRONT_SPRITES));
+        assertEquals(back, tables.backSprites());
+        assertEquals(RomTables.Table.BACK_SPRITES.fireRedSite, tables.site(RomTables.Table.BACK_SPRITES));
+    }
+
+    @Test
+    void bothSitesStaleKeepsFireRedOrder() {
+        clear(RomTables.Table.FRONT_SPRITES);
+        clear(RomTables.Table.BACK_SPRITES);
+        reference(back, 3);
+        reference(front, 1);
+        RomTables tables = RomTables.locate(image.reader("a"));
+        assertEquals(front, tables.frontSprites());
+        assertEquals(back, tables.backSprites());
+        // the palettes' sites still match
+        assertEquals(RomTables.Table.NORMAL_PALETTES.fireRedSite, tables.site(RomTables.Table.NORMAL_PALETTES));
+    }
+
+    @Test
+    void oneCandidateForAStalePairIsNotGuessed() {
+        clear(RomTables.Table.FRONT_SPRITES);
+        clear(RomTables.Table.BACK_SPRITES);
+        reference(back, 2);
+        RomTables tables = RomTables.locate(image.reader("a"));
+        assertFalse(tables.matched(RomTables.Table.FRONT_SPRITES));
+        assertFalse(tables.matched(RomTables.Table.BACK_SPRITES));
+    }
+
+    private int site(RomTables.Table table) {
+        return RomReader.toOffset(image.reader("a").read32(table.fireRedSite));
+    }
+
+    private void clear(RomTables.Table table) {
+        TestRom.put32(image.image, table.fireRedSite, 0);
+    }
+
+    private void reference(int target, int times) {
+        for (int i = 0; i < times; i++, pool += 4) {
+            TestRom.put32(image.image, pool, 0x08000000 + target);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SpriteExtractorTest {
+    private static final int SPRITE_BYTES = SpriteBuilder.NUM_TILES * SpriteBuilder.TILE_BYTES;
+    private static final int FREE = 0x2000; // unused bytes below TestRom's tables
+
+    private final TestRom image = new TestRom(5);
+
+    @Test
+    void aStreamOfSeveralFramesDrawsTheFirst() {
+        // four frames, like Castform's front sprite
+        byte[] frames = new byte[4 * SPRITE_BYTES];
+        new Random(1).nextBytes(frames);
+        setFrontSprite(5, frames);
+
+        SpriteExtractor.Sprites sprites = extract();
+        assertEquals(0, sprites.failed());
+        assertArrayEquals(Arrays.copyOf(frames, SPRITE_BYTES), sprites.frontPixels(5));
+    }
+
+    @Test
+    void aStreamShorterThanOneFrameIsBlank() {
+        setFrontSprite(5, new byte[SPRITE_BYTES - 32]);
+
+        SpriteExtractor.Sprites sprites = extract();
+        assertEquals(1, sprites.failed());
+        assertNull(sprites.frontPixels(5));
+    }
+
+    private void setFrontSprite(int id, byte[] pixels) {
+        byte[] stream = TestRom.lz10(pixels);
+        System.arraycopy(stream, 0, image.image, FREE, stream.length);
+        int table = RomReader.toOffset(image.reader("a").read32(RomTables.Table.FRONT_SPRITES.fireRedSite));
+        TestRom.put32(image.image, table + 8 * id, 0x08000000 + FREE);
+    }
+
+    private SpriteExtractor.Sprites extract() {
+        try (SpriteExtractor extractor = new SpriteExtractor(image.reader("a"), new AssetCache(1 << 20, false), 0, 0, false)) {
+            SpriteExtractor.Sprites sprites = extractor.newSprites(TestRom.SPECIES, 5);
+            extractor.extractRange(sprites, 1, TestRom.SPECIES);
+            return sprites;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// A small ROM image laid out like FireRed: each table the extractors read sits behind its FireRed pointer
+// site and holds enough entries for RomTables' signatures, so no scan is needed. Contents come from a
+// seeded Random, so the same seed always builds the same bytes. Tests edit the image before wrapping it.
+final class TestRom {
+    static final int SPECIES = 40;
+    static final int SIZE = 1 << 21;
+    private static final int SPRITE_BYTES = SpriteBuilder.NUM_TILES * SpriteBuilder.TILE_BYTES;
+
+    final byte[] image = new byte[SIZE];
+    private final Random random;
+    private int free = 0x100000;
+
+    // table offsets, for tests that edit them
+    final int speciesData;
+    final int encounters;
+
+    TestRom(long seed) {
+        random = new Random(seed);
+
+        int[] sprites = new int[SPECIES + 1];
+        int[] palettes = new int[SPECIES + 1];
+        for (int s = 0; s <= SPECIES; s++) {
+            sprites[s] = alloc(lz10(randomBytes(SPRITE_BYTES)));
+            palettes[s] = alloc(lz10(randomBytes(Palette.BYTES)));
+        }
+        pointer(RomTables.Table.FRONT_SPRITES, table(sprites, 0));
+        pointer(RomTables.Table.BACK_SPRITES, table(sprites, 1));
+        pointer(RomTables.Table.NORMAL_PALETTES, table(palettes, 0));
+        pointer(RomTables.Table.SHINY_PALETTES, table(palettes, 1));
+        byte[] icons = new byte[4 * (SPECIES + 1)];
+        for (int s = 0; s <= SPECIES; s++) {
+            put32(icons, 4 * s, 0x08000000 + alloc(randomBytes(0x400)));
+        }
+        pointer(RomTables.Table.ICON_SPRITES, alloc(icons));
+
+        byte[] names = new byte[11 * (SPECIES + 1)];
+        for (int s = 0; s <= SPECIES; s++) {
+            text(names, 11 * s, s == 0 ? "??????????" : "MON" + s);
+        }
+        pointer(RomTables.Table.SPECIES_NAMES, alloc(names));
+        byte[] types = new byte[7 * 18];
+        for (int t = 0; t < 18; t++) {
+            text(types, 7 * t, "TYPE" + t);
+        }
+        pointer(RomTables.Table.TYPE_NAMES, alloc(types));
+        byte[] mapNames = new byte[4 * 109];
+        for (int n = 0; n < 109; n++) {
+            byte[] name = new byte[12];
+            text(name, 0, "ROUTE " + n);
+            put32(mapNames, 4 * n, 0x08000000 + alloc(name));
+        }
+        pointer(RomTables.Table.MAP_NAMES, alloc(mapNames));
+
+        byte[] species = new byte[SpeciesTable.RECORD_BYTES * (SPECIES + 1)];
+        for (int s = 1; s <= SPECIES; s++) {
+            int r = s * SpeciesTable.RECORD_BYTES;
+            for (int i = 0; i < 6; i++) {
+                species[r + i] = (byte) (1 + random.nextInt(255));
+            }
+            species[r + 6] = (byte) random.nextInt(18);
+            species[r + 7] = (byte) random.nextInt(18);
+            species[r + 8] = (byte) random.nextInt(256);
+            species[r + 9] = (byte) random.nextInt(256);
+            species[r + 19] = (byte) random.nextInt(6);
+            species[r + 20] = (byte) random.nextInt(16);
+            species[r + 21] = (byte) random.nextInt(16);
+        }
+        speciesData = alloc(species);
+        pointer(RomTables.Table.SPECIES_DATA, speciesData);
+
+        // banks of 2 and 3 maps
+        int[][] bankMaps = { new int[2], new int[3] };
+        for (int[] bank : bankMaps) {
+            for (int m = 0; m < bank.length; m++) {
+                byte[] layout = new byte[MapIndex.LAYOUT_BYTES];
+                put32(layout, 0, 8 + random.nextInt(32));
+                put32(layout, 4, 8 + random.nextInt(32));
+                byte[] header = new byte[MapIndex.HEADER_BYTES];
+                put32(header, 0, 0x08000000 + alloc(layout));
+                header[16] = (byte) random.nextInt(256);
+                header[20] = (byte) (EncounterTable.FIRST_LABEL + random.nextInt(109));
+                header[22] = (byte) random.nextInt(8);
+                bank[m] = alloc(header);
+            }
+        }
+        byte[] master = new byte[4 * bankMaps.length + 4];
+        for (int b = 0; b < bankMaps.length; b++) {
+            byte[] bank = new byte[4 * bankMaps[b].length];
+            for (int m = 0; m < bankMaps[b].length; m++) {
+                put32(bank, 4 * m, 0x08000000 + bankMaps[b][m]);
+            }
+            put32(master, 4 * b, 0x08000000 + alloc(bank));
+        }
+        put32(master, 4 * bankMaps.length, MapIndex.SENTINEL);
+        pointer(RomTables.Table.MAP_BANKS, alloc(master));
+
+        // (0,0) land, (0,1) land and fishing, (1,2) water, then (0,0) again: FireRed lists some maps twice
+        int[][] headers = { { 0, 0, 1, 0, 0, 0 }, { 0, 1, 1, 0, 0, 1 }, { 1, 2, 0, 1, 0, 0 }, { 0, 0, 1, 0, 0, 0 } };
+        byte[] list = new byte[EncounterTable.HEADER_BYTES * headers.length + 2];
+        for (int h = 0; h < headers.length; h++) {
+            int at = h * EncounterTable.HEADER_BYTES;
+            list[at] = (byte) headers[h][0];
+            list[at + 1] = (byte) headers[h][1];
+            for (EncounterTable.Habitat habitat : EncounterTable.Habitat.values()) {
+                if (headers[h][2 + habitat.ordinal()] != 0) {
+                    put32(list, at + 4 + 4 * habitat.ordinal(), 0x08000000 + info(habitat.slots));
+                }
+            }
+        }
+        list[list.length - 2] = (byte) 0xFF;
+        list[list.length - 1] = (byte) 0xFF;
+        encounters = alloc(list);
+        pointer(RomTables.Table.ENCOUNTERS, encounters);
+    }
+
+    RomReader reader(String id) {
+        return new RomReader(id, image.clone());
+    }
+
+    // rate, padding and a pointer to slots of random species and levels
+    private int info(int slots) {
+        byte[] raw = new byte[slots * EncounterTable.SLOT_BYTES];
+        for (int i = 0; i < slots; i++) {
+            int level = 2 + random.nextInt(50);
+            raw[4 * i] = (byte) level;
+            raw[4 * i + 1] = (byte) (level + random.nextInt(5));
+            raw[4 * i + 2] = (byte) (1 + random.nextInt(SPECIES));
+        }
+        byte[] info = new byte[8];
+        info[0] = (byte) (1 + random.nextInt(30));
+        put32(info, 4, 0x08000000 + alloc(raw));
+        return alloc(info);
+    }
+
+    // 8-byte entries pointing at the targets, in reverse (after entry 0) for column 1 so the two tables
+    // of a pair differ
+    private int table(int[] targets, int column) {
+        byte[] table = new byte[8 * targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            put32(table, 8 * i, 0x08000000 + targets[column == 0 ? i : (targets.length - i) % targets.length]);
+        }
+        return alloc(table);
+    }
+
+    private void pointer(RomTables.Table table, int offset) {
+        put32(image, table.fireRedSite, 0x08000000 + offset);
+    }
+
+    private int alloc(byte[] data) {
+        int at = free;
+        System.arraycopy(data, 0, image, at, data.length);
+        free = (at + data.length + 3) & ~3;
+        return at;
+    }
+
+    private byte[] randomBytes(int n) {
+        byte[] bytes = new byte[n];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    static void put32(byte[] into, int at, int value) {
+        into[at] = (byte) value;
+        into[at + 1] = (byte) (value >> 8);
+        into[at + 2] = (byte) (value >> 16);
+        into[at + 3] = (byte) (value >> 24);
+    }
+
+    // upper case letters, digits, '?' and spaces in the Gen III charset, then the terminator
+    static void text(byte[] into, int at, String s) {
+        byte[] ascii = s.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < ascii.length; i++) {
+            char ch = (char) ascii[i];
+            into[at + i] = (byte) (ch >= 'A' && ch <= 'Z' ? 0xBB + ch - 'A'
+                    : ch >= '0' && ch <= '9' ? 0xA1 + ch - '0' : ch == '?' ? 0xAC : 0x00);
+        }
+        into[at + ascii.length] = (byte) TextDecoder.END;
+    }
+
+    // LZ10 with literals only: a zero flag byte before every 8 bytes
+    static byte[] lz10(byte[] data) {
+        byte[] out = new byte[4 + data.length + (data.length + 7) / 8];
+        out[0] = 0x10;
+        out[1] = (byte) data.length;
+        out[2] = (byte) (data.length >> 8);
+        out[3] = (byte) (data.length >> 16);
+        int o = 4;
+        for (int i = 0; i < data.length; i++) {
+            if (i % 8 == 0) out[o++] = 0;
+            out[o++] = data[i];
+        }
+        return out;
+    }
+}